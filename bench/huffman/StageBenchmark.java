@@ -0,0 +1,216 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import huffman.tree.HuffmanNode;
+
+/**
+ * Throughput of each stage of the compressor, for every symbol length and corpus file.
+ * Besides ops/s, each benchmark reports <code>bytes</code>, the original bytes the stage
+ * went through per second, and the GC profiler adds the allocation rate.
+ *
+ * Build with jmh-core and jmh-generator-annprocess on the classpath and run from the
+ * project root, so the corpus paths resolve (JMH also needs jopt-simple and commons-math3):
+ *
+ *   javac -cp $JMH -d bench-classes $(find src bench -name '*.java')
+ *   java -cp $JMH:bench-classes huffman.StageBenchmark -p symbolLength=8 -p file=txt/1.txt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+	private static final String ORIGINAL_DIR_PATH = "./files/original/";
+	private static final int CANONICAL_HEADER_BIT_LENGTH = 24 + HuffmanEncoder.ORIGINAL_SIZE_BIT_LENGTH;
+
+	@Param({ "6", "7", "8", "9", "10", "11", "12" })
+	public int symbolLength;
+
+	@Param({ "txt/1.txt", "txt/2.txt", "txt/3.txt", "txt/4.txt", "txt/5.txt", "gif/1.gif", "png/1.png", "png/2.png", "png/3.png" })
+	public String file;
+
+	private FileChannel channel;
+	private ByteBuffer original;
+	private long[] counts;
+	private HuffmanNode tree;
+	private CanonicalCode canonical;
+	private FixedLengthModel model;
+	private EncodeTable encodeTable;
+	private BitSequence treeHeader;
+	private BitSequence canonicalHeader;
+	private BitSequence coded;
+	private int codedBits;
+	private DecodeTable table;
+	private HuffmanEncoder encoder;
+	private HuffmanDecoder decoder;
+
+	/**
+	 * Bytes of the original file handled by each call, reported per second.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Bytes {
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			bytes = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		Path path = Paths.get(ORIGINAL_DIR_PATH + file);
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		original = ByteBuffer.wrap(Files.readAllBytes(path));
+
+		Histogram histogram = new Histogram(symbolLength);
+		histogram.update(original);
+		histogram.finish();
+		counts = histogram.getCounts();
+		tree = Utils.createHuffmanTree(counts, symbolLength);
+		canonical = CanonicalCode.fromTree(tree, symbolLength);
+		model = new FixedLengthModel(symbolLength);
+		encodeTable = canonical.getEncodeTable();
+		treeHeader = HuffmanEncoder.generateHeader(tree, symbolLength);
+		canonicalHeader = HuffmanEncoder.generateHeader(canonical, Format.CANONICAL, original.capacity());
+		table = canonical.getDecodeTable();
+		encoder = new HuffmanEncoder();
+		decoder = new HuffmanDecoder();
+
+		ByteBuffer target = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE / 8, original.capacity() * 4L + 16));
+		BitWriter output = new BitWriter(target);
+		encoder.codeFile(channel, model, encodeTable, output);
+		codedBits = (int) output.getBitCount();
+		output.flush();
+		target.flip();
+		coded = new BitSequence();
+		coded.wrap(target);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		channel.close();
+	}
+
+	@Benchmark
+	public Histogram histogram(Bytes counter) {
+		Histogram histogram = new Histogram(symbolLength);
+		histogram.update(original);
+		histogram.finish();
+		counter.bytes += original.capacity();
+		return histogram;
+	}
+
+	@Benchmark
+	public HuffmanNode tree(Bytes counter) {
+		counter.bytes += original.capacity();
+		return Utils.createHuffmanTree(counts, symbolLength);
+	}
+
+	@Benchmark
+	public Map<BitSequence, BitSequence> treeMapping(Bytes counter) {
+		counter.bytes += original.capacity();
+		return Utils.createMapping(tree, counts.length);
+	}
+
+	@Benchmark
+	public Map<BitSequence, BitSequence> canonicalMapping(Bytes counter) throws Exception {
+		counter.bytes += original.capacity();
+		return CanonicalCode.fromTree(tree, symbolLength).getMapping();
+	}
+
+	@Benchmark
+	public long encode(Bytes counter) throws IOException {
+		BitWriter output = new BitWriter(Sink.INSTANCE);
+		encoder.codeFile(channel, model, encodeTable, output);
+		output.flush();
+		counter.bytes += original.capacity();
+		return output.getBitCount();
+	}
+
+	@Benchmark
+	public long decode(Bytes counter) throws IOException {
+		BitWriter output = new BitWriter(Sink.INSTANCE);
+		table.decode(coded, 0, codedBits, output);
+		output.flush();
+		counter.bytes += original.capacity();
+		return output.getBitCount();
+	}
+
+	@Benchmark
+	public void writeHeader(Blackhole hole) {
+		hole.consume(HuffmanEncoder.generateHeader(tree, symbolLength));
+		hole.consume(HuffmanEncoder.generateHeader(canonical, Format.CANONICAL, original.capacity()));
+	}
+
+	@Benchmark
+	public void parseHeader(Blackhole hole) throws Exception {
+		hole.consume(decoder.readTreeHeader(treeHeader));
+		hole.consume(CanonicalCode.readHeader(canonicalHeader, CANONICAL_HEADER_BIT_LENGTH, symbolLength));
+	}
+
+	/**
+	 * Channel that drops what is written, so only the coding is measured.
+	 */
+	private static class Sink implements WritableByteChannel {
+		static final Sink INSTANCE = new Sink();
+
+		@Override
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.include(StageBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.parent(new CommandLineOptions(args))
+				.build();
+		new Runner(options).run();
+	}
+}
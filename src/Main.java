@@ -2,6 +2,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import huffman.*;
 
@@ -9,8 +13,11 @@ public class Main {
 	private static final String ORIGINAL_DIR_PATH = "./files/original/";
 	private static final String COMPRESSED_DIR_PATH = "./files/compressed/";
 	private static final String DECOMPRESSED_DIR_PATH = "./files/decompressed/";
+	// held here, the configuration of a logger nobody refers to can be collected
+	private static final Logger DIAGNOSTICS = Logger.getLogger("huffman");
 	
 	public static void main(String[] args) {
+		showDiagnostics();
 		String benchmarks = "bit_length file_extension file_size compression_time compression_rate decompression_time\n";
 		try {
 			FileOutputStream fos = new FileOutputStream("./files/benchmarks.txt");
@@ -23,13 +30,13 @@ public class Main {
 		}
 		for(int l = 6; l <= 12; l++) {
 			for(int t = 1; t <= 5; t++) 
-				benchmarkWithHeader("txt", t, l);
+				benchmarks += benchmarkWithHeader("txt", t, l);
 			
 			for(int t = 1; t <= 5; t++) 
-				benchmarkWithoutHeader("txt", t, l);
+				benchmarks += benchmarkWithoutHeader("txt", t, l);
 			
-			benchmarkWithHeader("gif", 1, l);
-			benchmarkWithHeader("png", 6, l);
+			benchmarks += benchmarkWithHeader("gif", 1, l);
+			benchmarks += benchmarkWithHeader("png", 1, l);
 		}
 		try {
 			FileOutputStream fos = new FileOutputStream("./files/benchmarks.txt");
@@ -40,19 +47,21 @@ public class Main {
 		}
 	}
 	
-	public static void benchmarkWithHeader(String extension, int fileNumber, int bitLength) {
+	public static String benchmarkWithHeader(String extension, int fileNumber, int bitLength) {
 		System.out.println("####################################################");
 		System.out.println("Benchmark " + fileNumber + "." + extension + " bits -> " + bitLength + "\n");
 		
 		String filePath = ORIGINAL_DIR_PATH + extension + "/" + fileNumber + "." + extension;
 		String compressDestinPath = COMPRESSED_DIR_PATH + extension + "/" + fileNumber + "." + extension;
 		
-		long t = System.currentTimeMillis();
+		long t = System.nanoTime();
 		Compressor.compressFile(filePath, bitLength, compressDestinPath);
-		System.out.println("Compresed in " + (System.currentTimeMillis() - t) + " ms");
-		t = System.currentTimeMillis();
+		long compression = System.nanoTime() - t;
+		System.out.println("Compresed in " + compression / 1000000 + " ms");
+		t = System.nanoTime();
 		Decompressor.decompressFile(compressDestinPath, DECOMPRESSED_DIR_PATH + extension + "/" + fileNumber + "_" + bitLength + "." + extension);
-		System.out.println("Decompresed in " + (System.currentTimeMillis() - t) + " ms");
+		long decompression = System.nanoTime() - t;
+		System.out.println("Decompresed in " + decompression / 1000000 + " ms");
 		
 		File original = new File(filePath);
 		File compressed = new File(compressDestinPath);
@@ -62,21 +71,24 @@ public class Main {
 		System.out.println("[FINAL] Compression size ................" + compressed.length() + " bytes ");
 		System.out.println("[FINAL] Compression rate:................" + String.format("%.2f", rate) + "%");
 		System.out.println("####################################################\n");
+		return bitLength + " " + extension + " " + original.length() + " " + compression / 1000000 + " " + String.format("%.2f", rate) + " " + decompression / 1000000 + "\n";
 	}
 	
-	public static void benchmarkWithoutHeader(String extension, int fileNumber, int bitLength) {
+	public static String benchmarkWithoutHeader(String extension, int fileNumber, int bitLength) {
 		System.out.println("####################################################");
 		System.out.println("Benchmark " + fileNumber + "." + extension + " bits -> " + bitLength + "\n");
 		
 		String filePath = ORIGINAL_DIR_PATH + extension + "/" + fileNumber + "." + extension;
 		String compressDestinPath = COMPRESSED_DIR_PATH + extension + "/" + fileNumber + "." + extension;
 		
-		long t = System.currentTimeMillis();
+		long t = System.nanoTime();
 		Compressor.compressFile(filePath, "./files/utils/probabilities_en.txt", compressDestinPath);
-		System.out.println("Compresed in " + (System.currentTimeMillis() - t) + " ms");
-		t = System.currentTimeMillis();
+		long compression = System.nanoTime() - t;
+		System.out.println("Compresed in " + compression / 1000000 + " ms");
+		t = System.nanoTime();
 		Decompressor.decompressFile(compressDestinPath, DECOMPRESSED_DIR_PATH + extension + "/" + fileNumber + "_" + bitLength + "." + extension, "./files/utils/probabilities_en.txt");
-		System.out.println("Decompresed in " + (System.currentTimeMillis() - t) + " ms");
+		long decompression = System.nanoTime() - t;
+		System.out.println("Decompresed in " + decompression / 1000000 + " ms");
 		
 		File original = new File(filePath);
 		File compressed = new File(compressDestinPath);
@@ -86,5 +98,31 @@ public class Main {
 		System.out.println("[FINAL] Compression size ................" + compressed.length() + " bytes ");
 		System.out.println("[FINAL] Compression rate:................" + String.format("%.2f", rate) + "%");
 		System.out.println("####################################################\n");
+		return bitLength + " " + extension + " " + original.length() + " " + compression / 1000000 + " " + String.format("%.2f", rate) + " " + decompression / 1000000 + "\n";
+	}
+	
+	/**
+	 * Prints what the library logs at FINE, the choices it made and where the time went,
+	 * between the lines of the benchmarks.
+	 */
+	private static void showDiagnostics() {
+		DIAGNOSTICS.setLevel(Level.FINE);
+		DIAGNOSTICS.setUseParentHandlers(false);
+		DIAGNOSTICS.addHandler(new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				if (isLoggable(record))
+					System.out.println(record.getMessage());
+			}
+
+			@Override
+			public void flush() {
+				System.out.flush();
+			}
+
+			@Override
+			public void close() {
+			}
+		});
 	}
 }
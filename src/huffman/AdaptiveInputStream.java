@@ -0,0 +1,150 @@
+package huffman;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import huffman.tree.AdaptiveTree;
+import huffman.tree.HuffmanNode;
+import huffman.tree.Leaf;
+import huffman.tree.Node;
+
+/**
+ * Decompresses a stream written by AdaptiveOutputStream. The tree is updated after every
+ * decoded symbol exactly as the encoder did, so the codes keep matching.
+ */
+public class AdaptiveInputStream extends FilterInputStream {
+	private static final int BUFFER_SIZE = 1 << 13;
+
+	private final AdaptiveTree tree;
+	private final int symbolLength;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int bufferPosition;
+	private int bufferLimit;
+	private int inputByte;
+	private int inputBits;
+	// decoded bits not returned yet, the bits of the last symbol are held back until the padding is known
+	private long decoded;
+	private int decodedBits;
+	private boolean finished;
+
+	/**
+	 * Reads the header of the stream.
+	 *
+	 * @param in - the compressed stream
+	 * @throws IOException if the stream wasn't written by AdaptiveOutputStream
+	 */
+	public AdaptiveInputStream(InputStream in) throws IOException {
+		super(in);
+		int marker = nextByte();
+		int format = nextByte();
+		int symbol = nextByte();
+		if (marker != Format.MARKER || format != Format.ADAPTIVE.getId())
+			throw new IOException("Not an adaptive compressed stream.");
+		this.symbolLength = symbol >>> 3;
+		this.tree = new AdaptiveTree(symbolLength);
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (decodedBits - 8 < (finished ? 0 : symbolLength)) {
+			if (finished)
+				return -1;
+			decodeSymbol();
+		}
+		decodedBits -= 8;
+		return (int) (decoded >>> decodedBits) & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		int n = 0;
+		while (n < len) {
+			int value = read();
+			if (value == -1)
+				return n == 0 ? -1 : n;
+			b[off + n++] = (byte) value;
+			// don't block on the stream once some bytes were read
+			if (available() == 0 && bufferPosition == bufferLimit)
+				break;
+		}
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return Math.max(0, decodedBits - (finished ? 0 : symbolLength)) / 8;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("Mark not supported.");
+	}
+
+	/**
+	 * Walks the tree from the root with the next bits, and updates it with the decoded symbol.
+	 */
+	private void decodeSymbol() throws IOException {
+		HuffmanNode node = tree.getRoot();
+		while (node instanceof Node)
+			node = nextBit() == 0 ? ((Node) node).getLeft() : ((Node) node).getRight();
+
+		int symbol;
+		if (tree.isEscape(node)) {
+			if (nextBit() == 1) {
+				int padding = nextBits(AdaptiveOutputStream.PADDING_BITS);
+				if (padding >= symbolLength || padding > decodedBits)
+					throw new IOException("Corrupted stream.");
+				decoded >>>= padding;
+				decodedBits -= padding;
+				finished = true;
+				return;
+			}
+			symbol = nextBits(symbolLength);
+		} else
+			symbol = tree.getSymbol((Leaf) node);
+		tree.update(symbol);
+		decoded = (decoded << symbolLength) | symbol;
+		decodedBits += symbolLength;
+	}
+
+	private int nextBits(int count) throws IOException {
+		int value = 0;
+		for (int i = 0; i < count; i++)
+			value = (value << 1) | nextBit();
+		return value;
+	}
+
+	private int nextBit() throws IOException {
+		if (inputBits == 0) {
+			inputByte = nextByte();
+			if (inputByte == -1)
+				throw new IOException("Truncated stream.");
+			inputBits = 8;
+		}
+		return (inputByte >>> --inputBits) & 1;
+	}
+
+	private int nextByte() throws IOException {
+		if (bufferPosition == bufferLimit) {
+			bufferLimit = in.read(buffer, 0, buffer.length);
+			bufferPosition = 0;
+			if (bufferLimit <= 0) {
+				bufferLimit = 0;
+				return -1;
+			}
+		}
+		return buffer[bufferPosition++] & 0xFF;
+	}
+}
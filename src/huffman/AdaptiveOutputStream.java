@@ -0,0 +1,111 @@
+package huffman;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+import huffman.tree.AdaptiveTree;
+
+/**
+ * Compresses a stream in a single pass with adaptive Huffman codes. Nothing is counted ahead
+ * and no code table is sent: each symbol is coded with the tree of the symbols before it, and
+ * the decoder rebuilds the same tree. The first codes can be sent as soon as they are written.
+ *
+ * A symbol seen for the first time is sent as the escape code, a 0 and the symbol itself.
+ * The stream ends with the escape code, a 1 and the number of padding bits of the last symbol.
+ */
+public class AdaptiveOutputStream extends FilterOutputStream {
+	static final int PADDING_BITS = 5;
+
+	private final AdaptiveTree tree;
+	private final int symbolLength;
+	private final long mask;
+	private final BitWriter output;
+	private long bits;
+	private int nBits;
+	private boolean closed;
+
+	/**
+	 * @param out          - where the compressed stream is written
+	 * @param symbolLength - bit length of the symbols (1 to 16)
+	 */
+	public AdaptiveOutputStream(OutputStream out, int symbolLength) throws IOException {
+		super(out);
+		this.tree = new AdaptiveTree(symbolLength);
+		this.symbolLength = symbolLength;
+		this.mask = (1L << symbolLength) - 1;
+		this.output = new BitWriter(Channels.newChannel(out));
+
+		// header: 0 <format> <symbol length> 000
+		output.write(Format.MARKER, 8);
+		output.write(Format.ADAPTIVE.getId(), 8);
+		output.write(symbolLength, 5);
+		output.write(0, 3);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		bits = (bits << 8) | (b & 0xFF);
+		nBits += 8;
+		while (nBits >= symbolLength) {
+			nBits -= symbolLength;
+			code((int) ((bits >>> nBits) & mask));
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		for (int i = off; i < off + len; i++)
+			write(b[i]);
+	}
+
+	/**
+	 * Sends the whole bytes coded so far. The bits of an incomplete byte, and of an incomplete
+	 * symbol, are kept until more bytes are written or the stream is closed.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		output.flushBytes();
+		out.flush();
+	}
+
+	/**
+	 * Codes the last incomplete symbol, padded with 0s, writes the end of the stream and closes
+	 * the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		try {
+			int padding = 0;
+			if (nBits > 0) {
+				padding = symbolLength - nBits;
+				code((int) ((bits << padding) & mask));
+			}
+			tree.writeEscape(output);
+			output.write(1, 1);
+			output.write(padding, PADDING_BITS);
+			output.flush();
+		} finally {
+			closed = true;
+			out.close();
+		}
+	}
+
+	private void code(int symbol) throws IOException {
+		if (!tree.writeCode(symbol, output)) {
+			output.write(0, 1);
+			output.write(symbol, symbolLength);
+		}
+		tree.update(symbol);
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed.");
+	}
+}
@@ -0,0 +1,303 @@
+package huffman;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compresses many files at once, one file per task on a work-stealing pool of a fixed number
+ * of threads. Encoders and their buffers are reused from one file to the next. Before a file
+ * is handed to the pool, the memory it may take is reserved from a budget, so the caller
+ * waits instead of the heap filling up when big files pile up in the queue.
+ */
+public class BatchCompressor {
+	public static final String EXTENSION = ".huf";
+	public static final long DEFAULT_MEMORY_BUDGET = 256L << 20;
+	// memory is reserved in units of 1 KB, so the budget fits in the permits of a semaphore
+	private static final int UNIT_SHIFT = 10;
+	// write buffers of an encoder, the one of the file and the ones of the interleaved streams
+	private static final long BUFFER_MEMORY = 1L << 18;
+	// count, place in the code being built and entry in the tables of each symbol of the alphabet
+	private static final long SYMBOL_MEMORY = 64;
+	private static final int MAX_ALPHABET_BITS = 32;
+
+	private final int threads;
+	private final long memoryBudget;
+	private final Semaphore memory;
+	private final HuffmanPool encoders;
+
+	/**
+	 * @param threads      - number of files compressed at the same time
+	 * @param memoryBudget - bytes the files being compressed may take together
+	 */
+	public BatchCompressor(int threads, long memoryBudget) {
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one thread is needed.");
+		this.threads = threads;
+		this.memoryBudget = Math.max(BUFFER_MEMORY, memoryBudget);
+		this.memory = new Semaphore(units(this.memoryBudget));
+		this.encoders = new HuffmanPool(threads);
+	}
+
+	public BatchCompressor() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Outcome of one file.
+	 */
+	public static class Result {
+		private final String filePath;
+		private final String compressedFilePath;
+		private final long originalSize;
+		private final long compressedSize;
+		private final long nanos;
+		private final String error;
+
+		Result(String filePath, String compressedFilePath, long originalSize, long compressedSize, long nanos, String error) {
+			this.filePath = filePath;
+			this.compressedFilePath = compressedFilePath;
+			this.originalSize = originalSize;
+			this.compressedSize = compressedSize;
+			this.nanos = nanos;
+			this.error = error;
+		}
+
+		public String getFilePath() {
+			return filePath;
+		}
+
+		public String getCompressedFilePath() {
+			return compressedFilePath;
+		}
+
+		public long getOriginalSize() {
+			return originalSize;
+		}
+
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * @return why the file couldn't be compressed, or null if it was
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * @return compressed size over original size, in percent
+		 */
+		public double getRate() {
+			return originalSize == 0 ? 100 : compressedSize * 100.0 / originalSize;
+		}
+	}
+
+	/**
+	 * Compresses every regular file of a directory, not its subdirectories.
+	 *
+	 * @param directory    - directory with the files to compress
+	 * @param outputDir    - where the compressed files are written, with EXTENSION added to their names
+	 * @param symbolLength - bit length, or Compressor.AUTO
+	 * @param format       - format of the compressed files
+	 * @return the result of each file, in the order of their names
+	 */
+	public List<Result> compressDirectory(String directory, String outputDir, int symbolLength, Format format) throws Exception {
+		List<String> files;
+		try (Stream<Path> entries = Files.list(Paths.get(directory))) {
+			files = entries.filter(Files::isRegularFile).map(Path::toString).sorted().collect(Collectors.toList());
+		}
+		return compress(files, outputDir, symbolLength, format);
+	}
+
+	/**
+	 * Compresses a list of files.
+	 *
+	 * @param files        - paths of the files to compress
+	 * @param outputDir    - where the compressed files are written, with EXTENSION added to their names
+	 * @param symbolLength - bit length, or Compressor.AUTO
+	 * @param format       - format of the compressed files
+	 * @return the result of each file, in the order of the list
+	 * @throws IllegalArgumentException if two files have the same name, before any is compressed
+	 */
+	public List<Result> compress(List<String> files, String outputDir, int symbolLength, Format format) throws Exception {
+		// the outputs are named after the files, so files of the same name in different directories would overwrite each other
+		Map<String, String> outputs = new HashMap<>();
+		for (String file : files) {
+			String previous = outputs.put(outputPath(outputDir, file), file);
+			if (previous != null)
+				throw new IllegalArgumentException(previous + " and " + file + " would both be written to " + outputPath(outputDir, file) + ".");
+		}
+		Files.createDirectories(Paths.get(outputDir));
+		long reservation = reservation(symbolLength, format);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<ForkJoinTask<Result>> tasks = new ArrayList<>(files.size());
+			for (String file : files) {
+				String compressed = outputPath(outputDir, file);
+				int units = units(Math.min(reservation + frame(file, format), memoryBudget));
+				// blocks here while the files in the pool use up the budget
+				memory.acquire(units);
+				try {
+					tasks.add(pool.submit(() -> {
+						try {
+							return compress(file, compressed, symbolLength, format);
+						} finally {
+							memory.release(units);
+						}
+					}));
+				} catch (RuntimeException e) {
+					memory.release(units);
+					throw e;
+				}
+			}
+			List<Result> results = new ArrayList<>(tasks.size());
+			for (ForkJoinTask<Result> task : tasks)
+				results.add(task.join());
+			return results;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Writes one line per file and a line with the totals.
+	 * summary: file original_size compressed_size compression_rate compression_time
+	 *
+	 * @param results     - results of a batch
+	 * @param summaryPath - file to write
+	 */
+	public static void writeSummary(List<Result> results, String summaryPath) throws IOException {
+		StringBuilder summary = new StringBuilder("file original_size compressed_size compression_rate compression_time\n");
+		long original = 0;
+		long compressed = 0;
+		long nanos = 0;
+		int failed = 0;
+		for (Result result : results) {
+			if (result.getError() != null) {
+				summary.append(result.getFilePath()).append(" failed: ").append(result.getError()).append("\n");
+				failed++;
+				continue;
+			}
+			summary.append(result.getFilePath()).append(" ").append(result.getOriginalSize()).append(" ").append(result.getCompressedSize())
+					.append(" ").append(String.format("%.2f", result.getRate())).append(" ").append(result.getNanos() / 1000000).append("\n");
+			original += result.getOriginalSize();
+			compressed += result.getCompressedSize();
+			nanos += result.getNanos();
+		}
+		summary.append("total ").append(original).append(" ").append(compressed).append(" ")
+				.append(String.format("%.2f", original == 0 ? 100 : compressed * 100.0 / original)).append(" ").append(nanos / 1000000);
+		if (failed > 0)
+			summary.append(" (").append(failed).append(" failed)");
+		summary.append("\n");
+		FileOutputStream fos = new FileOutputStream(summaryPath);
+		try {
+			fos.write(summary.toString().getBytes());
+		} finally {
+			fos.close();
+		}
+	}
+
+	/**
+	 * usage: BatchCompressor <directory or file with one path per line> <output directory> [symbol length or auto] [format] [threads]
+	 * The summary is written to summary.txt in the output directory.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("usage: BatchCompressor <directory or file list> <output directory> [symbol length or auto] [format] [threads]");
+			System.exit(1);
+		}
+		try {
+			int symbolLength = args.length > 2 && !args[2].equalsIgnoreCase("auto") ? Integer.parseInt(args[2]) : Compressor.AUTO;
+			Format format = args.length > 3 ? Format.valueOf(args[3].toUpperCase()) : Format.CANONICAL;
+			int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+			BatchCompressor batch = new BatchCompressor(threads, DEFAULT_MEMORY_BUDGET);
+
+			long t = System.nanoTime();
+			List<Result> results;
+			if (new File(args[0]).isDirectory())
+				results = batch.compressDirectory(args[0], args[1], symbolLength, format);
+			else
+				results = batch.compress(Files.readAllLines(Paths.get(args[0])).stream().filter(line -> !line.trim().isEmpty())
+						.map(String::trim).collect(Collectors.toList()), args[1], symbolLength, format);
+			t = System.nanoTime() - t;
+
+			String summaryPath = Paths.get(args[1], "summary.txt").toString();
+			writeSummary(results, summaryPath);
+			System.out.println("[BATCH] " + results.size() + " files in " + t / 1000000 + " ms, summary in " + summaryPath);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private Result compress(String filePath, String compressedFilePath, int symbolLength, Format format) {
+		HuffmanEncoder encoder = encoders.acquireEncoder();
+		long t = System.nanoTime();
+		try {
+			long originalSize = Files.size(Paths.get(filePath));
+			encoder.compress(filePath, symbolLength, compressedFilePath, format, null);
+			t = System.nanoTime() - t;
+			return new Result(filePath, compressedFilePath, originalSize, Files.size(Paths.get(compressedFilePath)), t, null);
+		} catch (Exception e) {
+			return new Result(filePath, compressedFilePath, 0, 0, System.nanoTime() - t, String.valueOf(e));
+		} finally {
+			encoders.release(encoder);
+		}
+	}
+
+	private static String outputPath(String outputDir, String filePath) {
+		return Paths.get(outputDir, Paths.get(filePath).getFileName() + EXTENSION).toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * Memory the encoder of a file takes on the heap: its write buffers, the histogram and
+	 * the tables of the alphabet, and the sample AUTO_SYMBOL_LENGTH picks the length from.
+	 * The file itself is mapped, so it is in the page cache, not on the heap. The counts of
+	 * the order-1 format go by pairs of symbols.
+	 */
+	private static long reservation(int symbolLength, Format format) {
+		int bits = symbolLength;
+		if (format == Format.TOKEN)
+			bits = TokenModel.DEFAULT_SYMBOL_LENGTH;
+		else if (symbolLength == Compressor.AUTO)
+			bits = format == Format.CONTEXT ? ContextCode.MAX_SYMBOL_LENGTH : SymbolLengthEstimator.MAX_SYMBOL_LENGTH;
+		bits = Math.max(0, Math.min(bits, MAX_ALPHABET_BITS));
+		long alphabet = 1L << bits;
+		long memory = BUFFER_MEMORY + alphabet * SYMBOL_MEMORY;
+		if (format == Format.CONTEXT)
+			memory += alphabet * alphabet * Long.BYTES;
+		if (format == Format.TOKEN)
+			memory += TokenModel.SAMPLE_SIZE;
+		else if (symbolLength == Compressor.AUTO)
+			memory += SymbolLengthEstimator.SAMPLE_SIZE;
+		return memory;
+	}
+
+	/**
+	 * @return the frame the stream format holds of the file, which is read onto the heap
+	 */
+	private static long frame(String filePath, Format format) {
+		return format == Format.STREAM ? Math.min(new File(filePath).length(), HuffmanOutputStream.DEFAULT_BLOCK_SIZE) : 0;
+	}
+
+	private static int units(long bytes) {
+		return (int) Math.min(Integer.MAX_VALUE, (bytes + (1 << UNIT_SHIFT) - 1) >>> UNIT_SHIFT);
+	}
+}
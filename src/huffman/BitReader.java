@@ -0,0 +1,203 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * MSB-first bit reader over a buffer, such as a mapped file. The next bits are kept left
+ * aligned in a 64-bit word; a refill loads 8 bytes with one read and keeps the whole bytes
+ * that fit, so it doesn't branch on how many bits are left. Past the limit of the buffer
+ * the reader returns 0s. Over a file channel it maps the file a window at a time and moves
+ * the window on when the next 8 bytes cross its end, so positions go past 2^31 bits.
+ */
+public class BitReader {
+	/** Bits that can be peeked after a refill. */
+	public static final int REFILL_BITS = 56;
+	private static final int WORD_BITS = 64;
+	private static final int MAP_WINDOW_SIZE = 1 << 30;
+
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize;
+	private ByteBuffer in;
+	private int limit;
+	// byte of the file at index 0 of the buffer
+	private long base;
+	// the byte after the ones in the word, it starts at bit count of the word
+	private int next;
+	private long word;
+	private int count;
+
+	/**
+	 * @param in   - the bytes to read, from index 0 to the limit
+	 * @param from - bit to start reading at
+	 */
+	public BitReader(ByteBuffer in, long from) {
+		this.channel = null;
+		this.size = in.limit();
+		this.windowSize = in.limit();
+		this.in = in.order() == ByteOrder.BIG_ENDIAN ? in : in.duplicate().order(ByteOrder.BIG_ENDIAN);
+		this.limit = in.limit();
+		this.next = (int) (from >>> 3);
+		refill();
+		consume((int) (from & 7));
+	}
+
+	/**
+	 * @param channel - the file to read, which must stay open while the reader is used
+	 * @param from    - bit to start reading at
+	 */
+	public BitReader(FileChannel channel, long from) throws IOException {
+		this(channel, from, MAP_WINDOW_SIZE);
+	}
+
+	/**
+	 * @param windowSize - bytes mapped at a time
+	 */
+	BitReader(FileChannel channel, long from, int windowSize) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.windowSize = windowSize;
+		map(from >>> 3);
+		refill();
+		consume((int) (from & 7));
+	}
+
+	/**
+	 * @param in   - the bytes to read
+	 * @param from - bit to start reading at
+	 */
+	public BitReader(byte[] in, long from) {
+		this(ByteBuffer.wrap(in), from);
+	}
+
+	/**
+	 * @param in   - the bits to read
+	 * @param from - bit to start reading at
+	 */
+	public BitReader(BitSequence in, long from) {
+		this(in.getBuffer(), from);
+	}
+
+	/**
+	 * Loads bytes until at least REFILL_BITS bits can be peeked. Right after a refill,
+	 * all 64 bits of window() are the next bits of the input.
+	 */
+	public void refill() {
+		long bytes = next + 8 <= limit ? in.getLong(next) : tail();
+		word |= bytes >>> count;
+		next += (WORD_BITS - 1 - count) >>> 3;
+		count |= REFILL_BITS;
+	}
+
+	/**
+	 * @param n - number of bits (1 to REFILL_BITS), no more than available()
+	 * @return the next n bits, right aligned, without moving past them
+	 */
+	public long peek(int n) {
+		return word >>> (WORD_BITS - n);
+	}
+
+	/**
+	 * @param n - number of bits to skip, no more than available()
+	 */
+	public void consume(int n) {
+		word <<= n;
+		count -= n;
+	}
+
+	/**
+	 * @param n - number of bits (0 to 64)
+	 * @return the next n bits, right aligned
+	 */
+	public long readBits(int n) {
+		if (n > REFILL_BITS)
+			return (readBits(n - 32) << 32) | readBits(32);
+		if (n == 0)
+			return 0;
+		if (count < n)
+			refill();
+		long bits = peek(n);
+		consume(n);
+		return bits;
+	}
+
+	public boolean readBit() {
+		return readBits(1) == 1;
+	}
+
+	/**
+	 * @param n - number of bits to skip
+	 */
+	public void skip(long n) {
+		if (n <= count) {
+			consume((int) n);
+			return;
+		}
+		long to = getPosition() + n;
+		long byteIndex = (to >>> 3) - base;
+		if (channel != null && (byteIndex < 0 || byteIndex > limit))
+			remap(to >>> 3);
+		else
+			next = (int) byteIndex;
+		word = 0;
+		count = 0;
+		refill();
+		consume((int) (to & 7));
+	}
+
+	/**
+	 * @return the next bits, left aligned; only the first available() of them are valid
+	 */
+	long window() {
+		return word;
+	}
+
+	/**
+	 * @return the number of bits that can be peeked without a refill
+	 */
+	public int available() {
+		return count;
+	}
+
+	/**
+	 * @return the index of the next bit to read
+	 */
+	public long getPosition() {
+		return (base + next) * 8 - count;
+	}
+
+	private long tail() {
+		if (channel != null && base + limit < size) {
+			// the next bytes are in the file, past the window
+			remap(base + next);
+			if (next + 8 <= limit)
+				return in.getLong(next);
+		}
+		long bytes = 0;
+		for (int i = next; i < next + 8; i++)
+			bytes = (bytes << 8) | (i < limit ? in.get(i) & 0xFF : 0);
+		return bytes;
+	}
+
+	private void remap(long position) {
+		try {
+			map(position);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Maps the window that starts at the byte, or at the end of the file if the byte is past it.
+	 */
+	private void map(long position) throws IOException {
+		base = Math.min(position, size);
+		in = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(windowSize, size - base));
+		limit = in.limit();
+		next = (int) (position - base);
+	}
+}
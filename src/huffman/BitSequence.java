@@ -1,110 +1,197 @@
 package huffman;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 public class BitSequence {
 	public static final byte NEW_BYTE = 0x0;
-	private List<Byte> bitSequence;
+	private static final int WORD_BITS = 64;
+	private static final int INITIAL_WORDS = 2;
+	private long[] words;
 	private int nBits;
-	private byte[] wrapedByte;
+	private ByteBuffer wrapedByte;
 	private boolean isWraped;
 
 	public BitSequence() {
-		bitSequence = new LinkedList<>();
-		bitSequence.add(NEW_BYTE);
+		words = new long[INITIAL_WORDS];
 		nBits = 0;
 	}
-	
+
 	public BitSequence(BitSequence bits) {
-		bitSequence = bits.getByteList();
+		words = bits.isWraped ? bits.toWords() : Arrays.copyOf(bits.words, bits.words.length);
 		nBits = bits.getNumberOfBits();
 	}
-	
+
 	public BitSequence(byte[] bits) {
-		bitSequence = new LinkedList<>();
-		nBits = bits.length*8;
+		words = new long[Math.max(INITIAL_WORDS, wordsFor(bits.length * 8))];
 		for(int i = 0; i < bits.length; i++)
-			bitSequence.add(bits[i]);
+			appendBits(bits[i], 8);
 	}
 
 	public BitSequence(byte bits) {
-		bitSequence = new LinkedList<>();
-		nBits = 8;
-		bitSequence.add(bits);
+		words = new long[INITIAL_WORDS];
+		appendBits(bits, 8);
 	}
-	
+
 	public BitSequence(String binaryString) {
-		bitSequence = new LinkedList<>();
+		words = new long[Math.max(INITIAL_WORDS, wordsFor(binaryString.length()))];
 		for(int i = 0; i < binaryString.length(); i++)
 			addBit( Integer.parseInt(binaryString.charAt(i) + "") == 1 );
 	}
 
 	public void wrap (byte[] array) throws Exception {
+		wrap(ByteBuffer.wrap(array));
+	}
+
+	/**
+	 * Reads the bits straight from a buffer, such as a mapped file, without copying them.
+	 * The sequence covers the buffer from index 0 to its limit.
+	 *
+	 * @param buffer - the bytes to read, at most 2^28 of them
+	 */
+	public void wrap (ByteBuffer buffer) throws Exception {
 		if(nBits > 0)
 			throw new Exception("Cannot wrap array if BitSequence isn't empty.");
-		wrapedByte = array;
+		if(buffer.limit() > Integer.MAX_VALUE / 8)
+			throw new Exception("Cannot wrap more than " + (Integer.MAX_VALUE / 8) + " bytes.");
+		wrapedByte = buffer.order() == ByteOrder.BIG_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
 		isWraped = true;
-		nBits = array.length*8;
+		nBits = buffer.limit()*8;
 	}
-	
+
 	/**
 	 * Adds a new bit to the sequence.
-	 * 
+	 *
 	 * @param set is true if the new bit has value 1 or false otherwise.
 	 */
 	public BitSequence addBit(boolean set) {
-		nBits++;
-		double byteIndex = Math.ceil(nBits / 8.0);
-		byte lastByte;
+		return appendBits(set ? 1 : 0, 1);
+	}
 
-		if (bitSequence.size() == byteIndex)
-			lastByte = bitSequence.remove(bitSequence.size() - 1);
-		else
-			lastByte = NEW_BYTE;
-		if (set)
-			lastByte |= (1 << 7-((nBits-1)%8));
+	/**
+	 * Appends the lowest <code>count</code> bits of <code>bits</code> to the sequence, most significant first.
+	 *
+	 * @param bits  - the bits to append, right aligned
+	 * @param count - number of bits to append (0 to 64)
+	 */
+	public BitSequence appendBits(long bits, int count) {
+		if(count == 0)
+			return this;
+		ensureCapacity(nBits + count);
+		if(count < WORD_BITS)
+			bits &= (1L << count) - 1;
 
-		bitSequence.add(lastByte);
+		int word = nBits >>> 6;
+		int free = WORD_BITS - (nBits & 63);
+		if(count <= free) {
+			words[word] |= bits << (free - count);
+		} else {
+			words[word] |= bits >>> (count - free);
+			words[word + 1] |= bits << (WORD_BITS - (count - free));
+		}
+		nBits += count;
 		return this;
 	}
-	
+
+	/**
+	 * Reads up to 64 bits starting at <code>from</code>, right aligned in the result.
+	 * Bits past the end of the sequence read as 0.
+	 *
+	 * @param from  - index of the first bit
+	 * @param count - number of bits to read (0 to 64)
+	 */
+	public long getBits(int from, int count) {
+		if(count == 0)
+			return 0;
+		if(isWraped)
+			return getWrapedBits(from, count);
+
+		int word = from >>> 6;
+		int off = from & 63;
+		long high = word < words.length ? words[word] : 0;
+		if(off + count <= WORD_BITS)
+			return high << off >>> (WORD_BITS - count);
+
+		long low = word + 1 < words.length ? words[word + 1] : 0;
+		return ((high << off) | (low >>> (WORD_BITS - off))) >>> (WORD_BITS - count);
+	}
+
+	private long getWrapedBits(int from, int count) {
+		int byteIndex = from >>> 3;
+		int off = from & 7;
+		long bits = 0;
+		if(byteIndex + 8 <= wrapedByte.limit())
+			bits = wrapedByte.getLong(byteIndex);
+		else
+			for(int i = 0; i < 8; i++)
+				bits = (bits << 8) | wrapedByteAt(byteIndex + i);
+		if(off + count <= WORD_BITS)
+			return bits << off >>> (WORD_BITS - count);
+
+		return ((bits << off) | (wrapedByteAt(byteIndex + 8) >>> (8 - off))) >>> (WORD_BITS - count);
+	}
+
+	private long wrapedByteAt(int index) {
+		return index < wrapedByte.limit() ? wrapedByte.get(index) & 0xFF : 0;
+	}
+
+	/**
+	 * @return the bytes of the sequence: the wrapped buffer itself, or a copy of the bits
+	 */
+	ByteBuffer getBuffer() {
+		if(isWraped)
+			return wrapedByte;
+		ByteBuffer buffer = ByteBuffer.allocate(wordsFor(nBits) * 8);
+		buffer.asLongBuffer().put(words, 0, wordsFor(nBits));
+		buffer.limit((nBits + 7) >>> 3);
+		return buffer;
+	}
+
 	public int getNumberOfBits() {
 		return nBits;
 	}
 
 	public byte[] getByteArray() {
-		bitSequence.toArray();
-		byte[] byteArray = new byte[bitSequence.size()];
-		for (int i = 0; i < bitSequence.size(); i++)
-			byteArray[i] = bitSequence.get(i);
-
+		byte[] byteArray = new byte[(nBits + 7) >>> 3];
+		copyBytes(0, byteArray, 0, byteArray.length);
 		return byteArray;
 	}
 
-	public List<Byte> getByteList() {
-		return bitSequence;
+	/**
+	 * Copies whole bytes of the sequence into <code>dest</code>. The last byte is padded with 0s.
+	 *
+	 * @param byteIndex  - index of the first byte to copy
+	 * @param dest       - destination array
+	 * @param destOffset - first position to write in the destination
+	 * @param length     - number of bytes to copy
+	 */
+	public void copyBytes(int byteIndex, byte[] dest, int destOffset, int length) {
+		if(isWraped) {
+			ByteBuffer source = wrapedByte.duplicate();
+			source.position(byteIndex);
+			source.get(dest, destOffset, length);
+			return;
+		}
+		for(int i = 0; i < length; i++) {
+			int b = byteIndex + i;
+			dest[destOffset + i] = (byte) (words[b >>> 3] >>> (56 - ((b & 7) << 3)));
+		}
 	}
 
 	public int getBitValue(int bitIndex) {
-		int byteIndex = bitIndex / 8;
-		if(isWraped) {
-			return (byte) ((wrapedByte[byteIndex] >> 7-(bitIndex % 8)) & 1);
-		}
-		return (byte) ((bitSequence.get(byteIndex) >> 7-(bitIndex % 8)) & 1);
+		return (int) getBits(bitIndex, 1);
 	}
 
 	public boolean isSet(int bitIndex) {
-		int byteIndex = bitIndex / 8;
-		if(isWraped) {
-			return (((wrapedByte[byteIndex] >> 7-(bitIndex % 8)) & 1)) == 1;
-		}
-		return (((bitSequence.get(byteIndex) >> 7-(bitIndex % 8)) & 1)) == 1;
+		return getBits(bitIndex, 1) == 1;
 	}
 
 	public BitSequence concat(BitSequence bits) {
-		for(int i = 0; i < bits.nBits; i++)
-			addBit(bits.getBitValue(i) == 1);
+		for(int i = 0; i < bits.nBits; i += WORD_BITS) {
+			int count = Math.min(WORD_BITS, bits.nBits - i);
+			appendBits(bits.getBits(i, count), count);
+		}
 		return this;
 	}
 
@@ -113,53 +200,79 @@ public class BitSequence {
 	 * @param from (inclusive)
 	 * @param to (exclusive)
 	 * @return bit chunk
-	 * @throws Exception 
+	 * @throws Exception
 	 */
 	public BitSequence getBitChunk(int from, int to) throws Exception {
-		BitSequence chunk = new BitSequence();
 		if(from < 0 || from > to || to > nBits)
 			throw new Exception("Illegal arguments.");
-		
-		for(int i = from; i < to; i++)
-			chunk.addBit(getBitValue(i) == 1);
-		
+
+		BitSequence chunk = new BitSequence();
+		for(int i = from; i < to; i += WORD_BITS) {
+			int count = Math.min(WORD_BITS, to - i);
+			chunk.appendBits(getBits(i, count), count);
+		}
 		return chunk;
 	}
-	
+
 	public BitSequence clone() {
-		BitSequence clone = new BitSequence();
-		for(int i = 0; i < nBits; i++) {
-			clone.addBit( getBitValue(i) == 1 );
-		}
-		return clone;
+		return new BitSequence(this);
 	}
-	
+
 	@Override
 	public int hashCode() {
 		int hash = 7;
-		hash = 31 * hash + bitSequence.hashCode();
+		for(int i = 0; i < nBits; i += WORD_BITS) {
+			long word = getBits(i, Math.min(WORD_BITS, nBits - i));
+			hash = 31 * hash + (int) (word ^ (word >>> 32));
+		}
 		hash = 31 * hash + nBits;
 		return hash;
 	}
 
 	@Override
 	public boolean equals(Object o) {
-		if (o instanceof BitSequence)
-			return hashCode() == o.hashCode();
-		else
+		if (!(o instanceof BitSequence))
+			return false;
+		BitSequence other = (BitSequence) o;
+		if (other.nBits != nBits)
 			return false;
+		for(int i = 0; i < nBits; i += WORD_BITS) {
+			int count = Math.min(WORD_BITS, nBits - i);
+			if (getBits(i, count) != other.getBits(i, count))
+				return false;
+		}
+		return true;
 	}
-	
+
 	@Override
 	public String toString() {
-		String s = "";
+		StringBuilder s = new StringBuilder(nBits);
 		for(int i = 0; i < nBits; i++)
-			s += getBitValue(i);
-		
-		return s;
+			s.append(getBitValue(i));
+
+		return s.toString();
 	}
-	
+
 	public boolean bitAt(int bits, int bitIndex) {
 		return ((bits >> 7-(bitIndex % 8)) & 1) == 1;
 	}
+
+	private void ensureCapacity(int bits) {
+		int needed = wordsFor(bits);
+		if(needed > words.length)
+			words = Arrays.copyOf(words, Math.max(needed, words.length + (words.length >> 1) + 1));
+	}
+
+	private long[] toWords() {
+		long[] copy = new long[Math.max(INITIAL_WORDS, wordsFor(nBits))];
+		for(int i = 0; i < nBits; i += WORD_BITS) {
+			int count = Math.min(WORD_BITS, nBits - i);
+			copy[i >>> 6] = getBits(i, count) << (WORD_BITS - count);
+		}
+		return copy;
+	}
+
+	private static int wordsFor(int bits) {
+		return (int) (((long) bits + WORD_BITS - 1) >>> 6);
+	}
 }
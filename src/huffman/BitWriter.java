@@ -0,0 +1,173 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered MSB-first bit writer over a channel. Bits are gathered in a 64-bit
+ * accumulator and moved to the byte buffer a whole word at a time, so memory use
+ * doesn't depend on how much is written. It can also write straight into a buffer,
+ * such as a mapped region of a file.
+ */
+public class BitWriter {
+	private static final int WORD_BITS = 64;
+	private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private long accumulator;
+	private int pending;
+	private long bitsWritten;
+
+	public BitWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param channel    - where the bytes go
+	 * @param bufferSize - size of the staging buffer, rounded down to whole words
+	 */
+	public BitWriter(WritableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(8, bufferSize & ~7));
+	}
+
+	/**
+	 * @param channel - where the bytes go
+	 * @param buffer  - staging buffer to reuse, its capacity must be a multiple of 8
+	 */
+	public BitWriter(WritableByteChannel channel, ByteBuffer buffer) {
+		this.channel = channel;
+		this.buffer = buffer;
+		buffer.clear();
+	}
+
+	/**
+	 * Writes into <code>target</code> from its position on. Bits that don't fit before its limit are dropped.
+	 *
+	 * @param target - where the bytes go
+	 */
+	public BitWriter(ByteBuffer target) {
+		this.channel = null;
+		this.buffer = target.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Writes the lowest <code>count</code> bits of <code>bits</code>, most significant first.
+	 *
+	 * @param bits  - the bits to write, right aligned
+	 * @param count - number of bits to write (0 to 64)
+	 */
+	public void write(long bits, int count) throws IOException {
+		if(count == 0)
+			return;
+		if(count < WORD_BITS)
+			bits &= (1L << count) - 1;
+		bitsWritten += count;
+
+		int free = WORD_BITS - pending;
+		if(count < free) {
+			accumulator = (accumulator << count) | bits;
+			pending += count;
+			return;
+		}
+		int rest = count - free;
+		long word = pending == 0 ? bits : (accumulator << free) | (bits >>> rest);
+		putWord(word);
+		accumulator = rest == 0 ? 0 : bits & ((1L << rest) - 1);
+		pending = rest;
+	}
+
+	public void write(BitSequence bits) throws IOException {
+		int nBits = bits.getNumberOfBits();
+		for(int i = 0; i < nBits; i += WORD_BITS) {
+			int count = Math.min(WORD_BITS, nBits - i);
+			write(bits.getBits(i, count), count);
+		}
+	}
+
+	/**
+	 * Writes the bytes between the position and the limit of the buffer, moving its position
+	 * to the limit. At a byte boundary they go straight to the channel, without going through
+	 * the accumulator.
+	 *
+	 * @param bytes - the bytes to write
+	 */
+	public void write(ByteBuffer bytes) throws IOException {
+		if(channel == null || pending % 8 != 0) {
+			while(bytes.hasRemaining())
+				write(bytes.get() & 0xFF, 8);
+			return;
+		}
+		flushBytes();
+		bitsWritten += bytes.remaining() * 8L;
+		while(bytes.hasRemaining())
+			channel.write(bytes);
+	}
+
+	/**
+	 * Pads the written bits up to a byte boundary with 0s and pushes everything to the channel.
+	 *
+	 * @return the number of padding bits added (0 to 7)
+	 */
+	public int flush() throws IOException {
+		int padding = (8 - pending % 8) % 8;
+		accumulator <<= padding;
+		pending += padding;
+		bitsWritten += padding;
+		while(pending > 0) {
+			pending -= 8;
+			putByte((byte) (accumulator >>> pending));
+		}
+		accumulator = 0;
+		drain();
+		return padding;
+	}
+
+	/**
+	 * Pushes the whole bytes written so far to the channel, without padding. Up to 7 bits
+	 * stay in the writer, so more bits can follow them.
+	 */
+	public void flushBytes() throws IOException {
+		while(pending >= 8) {
+			pending -= 8;
+			putByte((byte) (accumulator >>> pending));
+		}
+		drain();
+	}
+
+	/**
+	 * @return the number of bits written so far, including flushed padding
+	 */
+	public long getBitCount() {
+		return bitsWritten;
+	}
+
+	private void putWord(long word) throws IOException {
+		if(buffer.remaining() >= 8) {
+			buffer.putLong(word);
+			if(!buffer.hasRemaining())
+				drain();
+		} else {
+			for(int shift = 56; shift >= 0; shift -= 8)
+				putByte((byte) (word >>> shift));
+		}
+	}
+
+	private void putByte(byte b) throws IOException {
+		if(!buffer.hasRemaining())
+			drain();
+		if(buffer.hasRemaining())
+			buffer.put(b);
+	}
+
+	private void drain() throws IOException {
+		if(channel == null)
+			return;
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
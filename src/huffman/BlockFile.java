@@ -0,0 +1,172 @@
+package huffman;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reader for files written in the block format. Blocks share the code table in the header and
+ * are coded independently, so they can be decoded in parallel, or only the ones that cover a
+ * requested range of the original file.
+ */
+public class BlockFile implements Closeable {
+	private static final int HEADER_BIT_LENGTH = 24;
+	private static final int BLOCKS_IN_FLIGHT = 2;
+
+	private final FileChannel channel;
+	private final BlockIndex index;
+	private final DecodeTable table;
+	private final long length;
+
+	private BlockFile(FileChannel channel) throws Exception {
+		this.channel = channel;
+		// the footer is only trusted after the header says it's there
+		if (channel.size() < 2 || Format.of(BlockIndex.readFully(channel, 0, 2).array()) != Format.BLOCK)
+			throw new IOException("Not a file in the block format.");
+		this.index = BlockIndex.read(channel);
+		long headerSize = index.getBlockCount() == 0 ? 0 : index.getOffset(0) / 8;
+		BitSequence header = new BitSequence();
+		header.wrap(BlockIndex.readFully(channel, 0, (int) headerSize).array());
+		if (index.getBlockCount() > 0) {
+			int symbolLength = (int) header.getBits(16, 5);
+			this.table = CanonicalCode.readHeader(header, HEADER_BIT_LENGTH, symbolLength).getDecodeTable();
+		} else
+			this.table = null;
+
+		long total = 0;
+		for (int block = 0; block < index.getBlockCount(); block++)
+			total += index.getSize(block);
+		this.length = total;
+	}
+
+	/**
+	 * @param compressedFilePath - file written in the block format
+	 */
+	public static BlockFile open(String compressedFilePath) throws Exception {
+		FileChannel channel = FileChannel.open(Paths.get(compressedFilePath), StandardOpenOption.READ);
+		try {
+			return new BlockFile(channel);
+		} catch (Exception e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the size of the original file
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	public int getBlockCount() {
+		return index.getBlockCount();
+	}
+
+	/**
+	 * Reads a range of the original file, decoding only the blocks that cover it.
+	 *
+	 * @param offset - first byte of the original file to read
+	 * @param length - number of bytes to read
+	 * @return the bytes read, fewer than length if the range goes past the end of the file
+	 */
+	public byte[] read(long offset, int length) throws Exception {
+		if (offset < 0 || length < 0)
+			throw new Exception("Illegal arguments.");
+		int size = (int) Math.max(0, Math.min(length, this.length - offset));
+		byte[] out = new byte[size];
+		int blockSize = index.getBlockSize();
+		int done = 0;
+		for (int block = (int) (offset / blockSize); done < size; block++) {
+			ByteBuffer decoded = ByteBuffer.allocate(index.getSize(block));
+			decodeBlock(block, decoded);
+			int from = (int) (offset + done - (long) block * blockSize);
+			int count = Math.min(decoded.capacity() - from, size - done);
+			System.arraycopy(decoded.array(), from, out, done, count);
+			done += count;
+		}
+		return out;
+	}
+
+	/**
+	 * Decodes the whole file, several blocks at a time. Each block is decoded straight into
+	 * its own mapped region of the output file, mapped by its task. No more than
+	 * BLOCKS_IN_FLIGHT blocks per thread of the pool are submitted ahead of the oldest one,
+	 * so only their mappings are held at a time.
+	 *
+	 * @param decompressedFilePath - file to write, after decompressing
+	 * @param pool                 - where the blocks are decoded
+	 */
+	public void decompressTo(String decompressedFilePath, ForkJoinPool pool) throws Exception {
+		FileChannel out = FileChannel.open(Paths.get(decompressedFilePath), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		int window = BLOCKS_IN_FLIGHT * pool.getParallelism();
+		Deque<ForkJoinTask<?>> tasks = new ArrayDeque<>(window);
+		try {
+			if (length > 0)
+				out.write(ByteBuffer.allocate(1), length - 1);
+			long position = 0;
+			for (int block = 0; block < index.getBlockCount(); block++) {
+				if (tasks.size() == window)
+					tasks.poll().get();
+				final int current = block;
+				final long from = position;
+				position += index.getSize(block);
+				tasks.add(pool.submit(() -> {
+					decodeBlock(current, out.map(FileChannel.MapMode.READ_WRITE, from, index.getSize(current)));
+					return null;
+				}));
+			}
+			while (!tasks.isEmpty())
+				tasks.poll().get();
+		} finally {
+			// a block that failed leaves the others running, they must be done before the close
+			for (ForkJoinTask<?> task : tasks)
+				task.quietlyJoin();
+			out.close();
+		}
+	}
+
+	/**
+	 * Decodes a block into a buffer, or copies it if it is stored. Only the first bytes of the
+	 * block that fit in it are kept.
+	 *
+	 * @param block  - index of the block
+	 * @param target - where the original bytes of the block go
+	 */
+	void decodeBlock(int block, ByteBuffer target) throws Exception {
+		if (index.isStored(block)) {
+			ByteBuffer stored = target.duplicate();
+			stored.limit(stored.position() + Math.min(stored.remaining(), index.getSize(block)));
+			long position = index.getOffset(block) / 8;
+			while (stored.hasRemaining())
+				if (channel.read(stored, position + stored.position() - target.position()) < 0)
+					throw new IOException("Unexpected end of the compressed file.");
+			return;
+		}
+		long start = index.getOffset(block);
+		long end = index.getEnd(block);
+		long firstByte = start / 8;
+		long byteCount = (end + 7) / 8 - firstByte;
+
+		BitSequence compressed = new BitSequence();
+		compressed.wrap(channel.map(FileChannel.MapMode.READ_ONLY, firstByte, byteCount));
+		int from = (int) (start - firstByte * 8);
+		// the last symbol may be padded past the end of the block, the target drops what doesn't fit
+		BitWriter output = new BitWriter(target);
+		table.decode(compressed, from, from + (int) (end - start), output);
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
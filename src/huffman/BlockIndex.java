@@ -0,0 +1,133 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Trailing index of the block format: where the codes of each block start and how many bytes
+ * they decode to.
+ * trailer: (<bit offset> <stored> <original size>)* <block count> <block size> <index position>
+ * A stored block holds the original bytes, from a byte boundary.
+ */
+class BlockIndex {
+	static final int FOOTER_SIZE = 16;
+	private static final int ENTRY_SIZE = 12;
+	private static final int STORED = 1 << 31;
+
+	private final int blockSize;
+	private long[] offsets;
+	private int[] sizes;
+	private int count;
+	private long end;
+
+	BlockIndex(int blockSize) {
+		this.blockSize = blockSize;
+		this.offsets = new long[16];
+		this.sizes = new int[16];
+	}
+
+	/**
+	 * @param offset - bit offset of the codes of the block in the file
+	 * @param size   - number of bytes the block decodes to
+	 */
+	void add(long offset, int size) {
+		add(offset, size, false);
+	}
+
+	/**
+	 * @param offset - bit offset of the block in the file
+	 * @param size   - number of bytes the block decodes to
+	 * @param stored - whether the block holds the original bytes instead of codes
+	 */
+	void add(long offset, int size, boolean stored) {
+		if (count == offsets.length) {
+			offsets = Arrays.copyOf(offsets, count * 2);
+			sizes = Arrays.copyOf(sizes, count * 2);
+		}
+		offsets[count] = offset;
+		sizes[count++] = stored ? size | STORED : size;
+	}
+
+	/**
+	 * Appends the index to the file. The output must be at a byte boundary.
+	 */
+	void write(BitWriter output) throws IOException {
+		long position = output.getBitCount() / 8;
+		for (int i = 0; i < count; i++) {
+			output.write(offsets[i], 64);
+			output.write(sizes[i], 32);
+		}
+		output.write(count, 32);
+		output.write(blockSize, 32);
+		output.write(position, 64);
+		output.flush();
+	}
+
+	/**
+	 * Reads the index from the end of a file written in the block format.
+	 */
+	static BlockIndex read(FileChannel channel) throws IOException {
+		long footerPosition = channel.size() - FOOTER_SIZE;
+		if (footerPosition < 0)
+			throw new IOException("Unexpected end of the compressed file.");
+		ByteBuffer footer = readFully(channel, footerPosition, FOOTER_SIZE);
+		int count = footer.getInt();
+		int blockSize = footer.getInt();
+		long position = footer.getLong();
+		// the entries end where the footer starts
+		if (count < 0 || blockSize <= 0 || position < 0 || position > footerPosition
+				|| (long) count * ENTRY_SIZE != footerPosition - position)
+			throw new IOException("The block index of the compressed file is corrupt.");
+		BlockIndex index = new BlockIndex(blockSize);
+		ByteBuffer entries = readFully(channel, position, count * ENTRY_SIZE);
+		long previous = 0;
+		for (int i = 0; i < count; i++) {
+			long offset = entries.getLong();
+			int size = entries.getInt();
+			if (offset < previous || offset > position * 8 || (size & ~STORED) > blockSize)
+				throw new IOException("The block index of the compressed file is corrupt.");
+			index.add(offset, size & ~STORED, (size & STORED) != 0);
+			previous = offset;
+		}
+		index.end = position * 8;
+		return index;
+	}
+
+	int getBlockSize() {
+		return blockSize;
+	}
+
+	int getBlockCount() {
+		return count;
+	}
+
+	long getOffset(int block) {
+		return offsets[block];
+	}
+
+	/**
+	 * @return the bit offset where the codes of the block end
+	 */
+	long getEnd(int block) {
+		return block + 1 < count ? offsets[block + 1] : end;
+	}
+
+	int getSize(int block) {
+		return sizes[block] & ~STORED;
+	}
+
+	boolean isStored(int block) {
+		return (sizes[block] & STORED) != 0;
+	}
+
+	static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of the compressed file.");
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,287 @@
+package huffman;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Stack;
+
+import huffman.tree.HuffmanNode;
+import huffman.tree.Leaf;
+import huffman.tree.Node;
+
+/**
+ * Canonical Huffman code. Only the code length of each symbol is kept: symbols are ordered by
+ * (length, value) and get consecutive codes, so the lengths are all a decoder needs.
+ */
+public class CanonicalCode {
+	public static final int MAX_CODE_LENGTH = 31;
+	public static final int DEFAULT_CODE_LENGTH_LIMIT = 24;
+	private static final int LENGTH_BITS = 5;
+
+	private final int symbolLength;
+	private final int[] symbols;
+	private final int[] lengths;
+	private final long[] codes;
+
+	/**
+	 * @param symbolLength - bit length of the symbols
+	 * @param symbols      - the symbols that have a code
+	 * @param lengths      - code length of each symbol
+	 * @throws Exception if a code is longer than MAX_CODE_LENGTH
+	 */
+	public CanonicalCode(int symbolLength, int[] symbols, int[] lengths) throws Exception {
+		this.symbolLength = symbolLength;
+		int n = symbols.length;
+		long[] order = new long[n];
+		for (int i = 0; i < n; i++) {
+			if (lengths[i] < 1 || lengths[i] > MAX_CODE_LENGTH)
+				throw new Exception("Code lengths must be between 1 and " + MAX_CODE_LENGTH + ".");
+			order[i] = ((long) lengths[i] << 32) | symbols[i];
+		}
+		Arrays.sort(order);
+
+		this.symbols = new int[n];
+		this.lengths = new int[n];
+		this.codes = new long[n];
+		long code = 0;
+		for (int i = 0; i < n; i++) {
+			this.symbols[i] = (int) order[i];
+			this.lengths[i] = (int) (order[i] >>> 32);
+			if (i > 0)
+				code = (code + 1) << (this.lengths[i] - this.lengths[i - 1]);
+			this.codes[i] = code;
+		}
+	}
+
+	/**
+	 * Takes the code lengths from the depth of each leaf of a Huffman tree.
+	 *
+	 * @param root         - the root of the huffman tree
+	 * @param symbolLength - bit length of the symbols
+	 */
+	public static CanonicalCode fromTree(HuffmanNode root, int symbolLength) throws Exception {
+		Map<Integer, Integer> depths = new HashMap<>();
+		Stack<HuffmanNode> searchQueue = new Stack<>();
+		Stack<Integer> depthStack = new Stack<>();
+		searchQueue.push(root);
+		depthStack.push(0);
+		while (!searchQueue.isEmpty()) {
+			HuffmanNode node = searchQueue.pop();
+			int depth = depthStack.pop();
+			if (node instanceof Node) {
+				searchQueue.push(((Node) node).getRight());
+				depthStack.push(depth + 1);
+				searchQueue.push(((Node) node).getLeft());
+				depthStack.push(depth + 1);
+			} else {
+				int symbol = (int) ((Leaf) node).getSymbol().getBits(0, symbolLength);
+				depths.put(symbol, Math.max(1, depth));
+			}
+		}
+
+		int[] symbols = new int[depths.size()];
+		int[] lengths = new int[depths.size()];
+		int i = 0;
+		for (Map.Entry<Integer, Integer> entry : depths.entrySet()) {
+			symbols[i] = entry.getKey();
+			lengths[i++] = entry.getValue();
+		}
+		return new CanonicalCode(symbolLength, symbols, lengths);
+	}
+
+	/**
+	 * Builds an optimal code whose codes are at most <code>maxCodeLength</code> bits long.
+	 * The limit is raised if the symbols don't fit in codes of that length.
+	 *
+	 * @param counts        - occurrences of each symbol value
+	 * @param symbolLength  - bit length of the symbols
+	 * @param maxCodeLength - longest code allowed (1 to MAX_CODE_LENGTH)
+	 */
+	public static CanonicalCode fromCounts(long[] counts, int symbolLength, int maxCodeLength) throws Exception {
+		if (maxCodeLength < 1 || maxCodeLength > MAX_CODE_LENGTH)
+			throw new Exception("Code length limit must be between 1 and " + MAX_CODE_LENGTH + ".");
+		int n = 0;
+		for (long count : counts)
+			if (count > 0)
+				n++;
+		int[] symbols = new int[n];
+		long[] weights = new long[n];
+		for (int symbol = 0, i = 0; symbol < counts.length; symbol++) {
+			if (counts[symbol] > 0) {
+				symbols[i] = symbol;
+				weights[i++] = counts[symbol];
+			}
+		}
+		int limit = Math.max(maxCodeLength, 32 - Integer.numberOfLeadingZeros(Math.max(1, n - 1)));
+		return new CanonicalCode(symbolLength, symbols, PackageMerge.lengths(weights, limit));
+	}
+
+	/**
+	 * @return the mapping of each symbol to its code
+	 */
+	public Map<BitSequence, BitSequence> getMapping() {
+		Map<BitSequence, BitSequence> mapping = new HashMap<>(symbols.length);
+		for (int i = 0; i < symbols.length; i++)
+			mapping.put(new BitSequence().appendBits(symbols[i], symbolLength), new BitSequence().appendBits(codes[i], lengths[i]));
+		return mapping;
+	}
+
+	public EncodeTable getEncodeTable() {
+		int[] codesByValue = new int[1 << symbolLength];
+		byte[] lengthsByValue = new byte[1 << symbolLength];
+		for (int i = 0; i < symbols.length; i++) {
+			codesByValue[symbols[i]] = (int) codes[i];
+			lengthsByValue[symbols[i]] = (byte) lengths[i];
+		}
+		return new EncodeTable(symbolLength, codesByValue, lengthsByValue);
+	}
+
+	public DecodeTable getDecodeTable() throws Exception {
+		long[] values = new long[symbols.length];
+		int[] widths = new int[symbols.length];
+		for (int i = 0; i < symbols.length; i++) {
+			values[i] = symbols[i];
+			widths[i] = symbolLength;
+		}
+		return new DecodeTable(codes, lengths, values, widths);
+	}
+
+	/**
+	 * @param model - what each symbol decodes to
+	 */
+	public DecodeTable getDecodeTable(SymbolModel model) throws Exception {
+		long[] values = new long[symbols.length];
+		int[] widths = new int[symbols.length];
+		for (int i = 0; i < symbols.length; i++) {
+			values[i] = model.getBits(symbols[i]);
+			widths[i] = model.getWidth(symbols[i]);
+		}
+		return new DecodeTable(codes, lengths, values, widths);
+	}
+
+	public int getSymbolLength() {
+		return symbolLength;
+	}
+
+	public int getMaxCodeLength() {
+		return symbols.length == 0 ? 0 : lengths[lengths.length - 1];
+	}
+
+	/**
+	 * Writes the code lengths. They are either listed as a count per length followed by the symbols
+	 * in canonical order, or as one length per possible symbol when that is smaller.
+	 * header: <max length> <dense> (<count width> <count per length> <symbols> | <length per symbol>)
+	 *
+	 * @param header - where the lengths are appended
+	 */
+	public void writeHeader(BitSequence header) {
+		int maxLength = getMaxCodeLength();
+		header.appendBits(maxLength, LENGTH_BITS);
+		boolean dense = denseBits() < sparseBits(maxLength);
+		header.addBit(dense);
+		if (dense) {
+			int[] byValue = new int[1 << symbolLength];
+			for (int i = 0; i < symbols.length; i++)
+				byValue[symbols[i]] = lengths[i];
+			for (int length : byValue)
+				header.appendBits(length, LENGTH_BITS);
+		} else {
+			int[] counts = countsPerLength(maxLength);
+			int countWidth = countWidth(counts);
+			header.appendBits(countWidth - 1, LENGTH_BITS);
+			for (int length = 1; length <= maxLength; length++)
+				header.appendBits(counts[length], countWidth);
+			for (int symbol : symbols)
+				header.appendBits(symbol, symbolLength);
+		}
+	}
+
+	/**
+	 * @return the number of bits writeHeader takes
+	 */
+	public int getHeaderLength() {
+		int maxLength = getMaxCodeLength();
+		return LENGTH_BITS + 1 + Math.min(denseBits(), sparseBits(maxLength));
+	}
+
+	/**
+	 * Reads the code lengths written by writeHeader.
+	 *
+	 * @param header       - the compressed file
+	 * @param position     - where the code lengths start
+	 * @param symbolLength - bit length of the symbols
+	 */
+	public static CanonicalCode readHeader(BitSequence header, int position, int symbolLength) throws Exception {
+		return readHeader(new BitReader(header, position), symbolLength);
+	}
+
+	/**
+	 * Reads the code lengths written by writeHeader, leaving the reader after them.
+	 *
+	 * @param header       - reader at the start of the code lengths
+	 * @param symbolLength - bit length of the symbols
+	 */
+	public static CanonicalCode readHeader(BitReader header, int symbolLength) throws Exception {
+		int maxLength = (int) header.readBits(LENGTH_BITS);
+		boolean dense = header.readBit();
+		int[] symbols;
+		int[] lengths;
+		if (dense) {
+			int alphabet = 1 << symbolLength;
+			int n = 0;
+			int[] byValue = new int[alphabet];
+			for (int symbol = 0; symbol < alphabet; symbol++) {
+				byValue[symbol] = (int) header.readBits(LENGTH_BITS);
+				if (byValue[symbol] > 0)
+					n++;
+			}
+			symbols = new int[n];
+			lengths = new int[n];
+			for (int symbol = 0, i = 0; symbol < alphabet; symbol++) {
+				if (byValue[symbol] > 0) {
+					symbols[i] = symbol;
+					lengths[i++] = byValue[symbol];
+				}
+			}
+		} else {
+			int countWidth = (int) header.readBits(LENGTH_BITS) + 1;
+			int[] counts = new int[maxLength + 1];
+			int n = 0;
+			for (int length = 1; length <= maxLength; length++) {
+				counts[length] = (int) header.readBits(countWidth);
+				n += counts[length];
+			}
+			symbols = new int[n];
+			lengths = new int[n];
+			for (int length = 1, i = 0; length <= maxLength; length++) {
+				for (int c = 0; c < counts[length]; c++, i++) {
+					symbols[i] = (int) header.readBits(symbolLength);
+					lengths[i] = length;
+				}
+			}
+		}
+		return new CanonicalCode(symbolLength, symbols, lengths);
+	}
+
+	private int denseBits() {
+		return symbolLength > 16 ? Integer.MAX_VALUE : (1 << symbolLength) * LENGTH_BITS;
+	}
+
+	private int sparseBits(int maxLength) {
+		return LENGTH_BITS + maxLength * countWidth(countsPerLength(maxLength)) + symbols.length * symbolLength;
+	}
+
+	private int[] countsPerLength(int maxLength) {
+		int[] counts = new int[maxLength + 1];
+		for (int length : lengths)
+			counts[length]++;
+		return counts;
+	}
+
+	private static int countWidth(int[] counts) {
+		int max = 1;
+		for (int count : counts)
+			max = Math.max(max, count);
+		return 32 - Integer.numberOfLeadingZeros(max);
+	}
+}
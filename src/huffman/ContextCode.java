@@ -0,0 +1,272 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Order-1 canonical code: each symbol is coded with the table of the symbol before it.
+ * Contexts whose own table saves more bits than it costs in the header get one; the rest
+ * share a table built from their counts together, so rare contexts don't bloat the header.
+ */
+public class ContextCode {
+	public static final int MAX_SYMBOL_LENGTH = 10;
+	private static final int WORD_BITS = 64;
+	private static final int LENGTH_MASK = 0xFF;
+	private static final int INDEX_SHIFT = 8;
+
+	private final int symbolLength;
+	// table of each context, 0 is the shared one
+	private final int[] groupOf;
+	private final CanonicalCode[] codes;
+	private int[] flatCodes;
+	private byte[] flatLengths;
+	private DecodeTable[] tables;
+
+	/**
+	 * @param symbolLength - bit length of the symbols
+	 * @param groupOf      - table of each context, 0 for the shared table
+	 * @param codes        - the shared table followed by the table of each context that has its own
+	 */
+	public ContextCode(int symbolLength, int[] groupOf, CanonicalCode[] codes) {
+		this.symbolLength = symbolLength;
+		this.groupOf = groupOf;
+		this.codes = codes;
+	}
+
+	/**
+	 * Builds a table for every context that pays for its header, and one shared table for the others.
+	 *
+	 * @param histogram     - counts of each symbol by context
+	 * @param maxCodeLength - longest code allowed (1 to CanonicalCode.MAX_CODE_LENGTH)
+	 */
+	public static ContextCode fromCounts(ContextHistogram histogram, int maxCodeLength) throws Exception {
+		int symbolLength = histogram.getSymbolLength();
+		int contexts = 1 << symbolLength;
+		long[] total = new long[contexts];
+		for (int context = 0; context < contexts; context++) {
+			long[] counts = histogram.getCounts(context);
+			for (int symbol = 0; symbol < contexts; symbol++)
+				total[symbol] += counts[symbol];
+		}
+		EncodeTable order0 = CanonicalCode.fromCounts(total, symbolLength, maxCodeLength).getEncodeTable();
+
+		int[] groupOf = new int[contexts];
+		CanonicalCode[] own = new CanonicalCode[contexts + 1];
+		long[] shared = new long[contexts];
+		int groups = 1;
+		for (int context = 0; context < contexts; context++) {
+			long[] counts = histogram.getCounts(context);
+			CanonicalCode code = CanonicalCode.fromCounts(counts, symbolLength, maxCodeLength);
+			long saved = order0.getCodedLength(counts) - code.getEncodeTable().getCodedLength(counts);
+			if (saved > code.getHeaderLength()) {
+				groupOf[context] = groups;
+				own[groups++] = code;
+			} else {
+				for (int symbol = 0; symbol < contexts; symbol++)
+					shared[symbol] += counts[symbol];
+			}
+		}
+		CanonicalCode[] codes = new CanonicalCode[groups];
+		System.arraycopy(own, 1, codes, 1, groups - 1);
+		codes[0] = CanonicalCode.fromCounts(shared, symbolLength, maxCodeLength);
+		return new ContextCode(symbolLength, groupOf, codes);
+	}
+
+	public int getSymbolLength() {
+		return symbolLength;
+	}
+
+	/**
+	 * @return the number of tables, the shared one included
+	 */
+	public int getTableCount() {
+		return codes.length;
+	}
+
+	/**
+	 * @param histogram - counts of each symbol by context
+	 * @return the number of bits the codes of those symbols take
+	 */
+	public long getCodedLength(ContextHistogram histogram) {
+		EncodeTable[] tables = new EncodeTable[codes.length];
+		for (int group = 0; group < codes.length; group++)
+			tables[group] = codes[group].getEncodeTable();
+		long bits = 0;
+		for (int context = 0; context < groupOf.length; context++)
+			bits += tables[groupOf[context]].getCodedLength(histogram.getCounts(context));
+		return bits;
+	}
+
+	/**
+	 * Writes which contexts have their own table, then the code lengths of every table.
+	 * header: <own table bit per context> <shared code lengths> <code lengths of each own table>
+	 *
+	 * @param header - where the tables are appended
+	 */
+	public void writeHeader(BitSequence header) {
+		for (int group : groupOf)
+			header.addBit(group != 0);
+		for (CanonicalCode code : codes)
+			code.writeHeader(header);
+	}
+
+	/**
+	 * @return the number of bits writeHeader takes
+	 */
+	public int getHeaderLength() {
+		int bits = groupOf.length;
+		for (CanonicalCode code : codes)
+			bits += code.getHeaderLength();
+		return bits;
+	}
+
+	/**
+	 * Reads the tables written by writeHeader.
+	 *
+	 * @param header       - the compressed file
+	 * @param position     - where the tables start
+	 * @param symbolLength - bit length of the symbols
+	 */
+	public static ContextCode readHeader(BitSequence header, int position, int symbolLength) throws Exception {
+		return readHeader(new BitReader(header, position), symbolLength);
+	}
+
+	/**
+	 * Reads the tables written by writeHeader, leaving the reader after them.
+	 *
+	 * @param header       - reader at the start of the tables
+	 * @param symbolLength - bit length of the symbols
+	 */
+	public static ContextCode readHeader(BitReader header, int symbolLength) throws Exception {
+		if (symbolLength < 1 || symbolLength > MAX_SYMBOL_LENGTH)
+			throw new Exception("Symbol length must be between 1 and " + MAX_SYMBOL_LENGTH + ".");
+		int[] groupOf = new int[1 << symbolLength];
+		int groups = 1;
+		for (int context = 0; context < groupOf.length; context++)
+			if (header.readBit())
+				groupOf[context] = groups++;
+		CanonicalCode[] codes = new CanonicalCode[groups];
+		for (int group = 0; group < groups; group++)
+			codes[group] = CanonicalCode.readHeader(header, symbolLength);
+		return new ContextCode(symbolLength, groupOf, codes);
+	}
+
+	/**
+	 * Codes the bytes between the position and the limit of the buffer, without moving its
+	 * position. A last incomplete symbol is padded with 0s.
+	 *
+	 * @param in      - the bytes to code, a whole number of symbols unless it is the end of the file
+	 * @param context - the symbol before the first one, 0 at the start of the file
+	 * @param out     - where the codes are written
+	 * @return the last symbol, the context of the next bytes
+	 * @throws IOException if a symbol has no code in its context
+	 */
+	public int code(ByteBuffer in, int context, EncodeTable.Sink out) throws IOException {
+		if (flatCodes == null)
+			flatten();
+		long mask = (1L << symbolLength) - 1;
+		long bits = 0;
+		int nBits = 0;
+		long word = 0;
+		int wordBits = 0;
+		int limit = in.limit();
+		for (int i = in.position(); i <= limit; i++) {
+			if (i < limit) {
+				bits = (bits << 8) | (in.get(i) & 0xFF);
+				nBits += 8;
+			} else if (nBits > 0) {
+				bits <<= symbolLength - nBits;
+				nBits = symbolLength;
+			}
+			while (nBits >= symbolLength) {
+				nBits -= symbolLength;
+				int symbol = (int) ((bits >>> nBits) & mask);
+				int index = (groupOf[context] << symbolLength) | symbol;
+				int length = flatLengths[index];
+				long code = flatCodes[index] & 0xFFFFFFFFL;
+				if (length == 0)
+					throw new IOException("Symbol " + symbol + " has no code after " + context + ".");
+				int free = WORD_BITS - wordBits;
+				if (length <= free) {
+					word = (word << length) | code;
+					wordBits += length;
+				} else {
+					out.write((word << free) | (code >>> (length - free)), WORD_BITS);
+					word = code;
+					wordBits = length - free;
+				}
+				context = symbol;
+			}
+		}
+		out.write(word, wordBits);
+		return context;
+	}
+
+	/**
+	 * Decodes every complete code in [from, to), switching tables after each symbol.
+	 *
+	 * @param in   - the coded bits
+	 * @param from - first bit to decode (inclusive)
+	 * @param to   - end of the coded bits (exclusive)
+	 * @param out  - where the decoded symbols are written
+	 * @return the position after the last decoded code
+	 */
+	public int decode(BitSequence in, int from, int to, BitWriter out) throws Exception {
+		return (int) decode(new BitReader(in, from), to, out);
+	}
+
+	/**
+	 * Decodes every complete code from the position of the reader up to <code>to</code>.
+	 *
+	 * @param reader - the coded bits
+	 * @param to     - end of the coded bits (exclusive)
+	 * @param out    - where the decoded symbols are written
+	 * @return the position after the last decoded code
+	 */
+	public long decode(BitReader reader, long to, BitWriter out) throws Exception {
+		if (tables == null) {
+			tables = new DecodeTable[codes.length];
+			for (int group = 0; group < codes.length; group++)
+				tables[group] = codes[group].getDecodeTable();
+		}
+		int maxCodeLength = 1;
+		for (CanonicalCode code : codes)
+			maxCodeLength = Math.max(maxCodeLength, code.getMaxCodeLength());
+		// the table of each context, so the loop doesn't go through groupOf
+		DecodeTable[] byContext = new DecodeTable[groupOf.length];
+		for (int context = 0; context < groupOf.length; context++)
+			byContext[context] = tables[groupOf[context]];
+
+		int context = 0;
+		long pos = reader.getPosition();
+		while (pos < to) {
+			reader.refill();
+			long window = reader.window();
+			int budget = reader.available() - maxCodeLength;
+			int rest = (int) Math.min(to - pos, WORD_BITS);
+			int used = 0;
+			do {
+				DecodeTable table = byContext[context];
+				int entry = table.lookup(window << used);
+				int length = entry & LENGTH_MASK;
+				if (length == 0 || used + length > rest)
+					return pos + used;
+				context = (int) table.getSymbol(entry >>> INDEX_SHIFT);
+				out.write(context, symbolLength);
+				used += length;
+			} while (used <= budget && used < rest);
+			reader.consume(used);
+			pos += used;
+		}
+		return pos;
+	}
+
+	private void flatten() {
+		flatCodes = new int[codes.length << symbolLength];
+		flatLengths = new byte[codes.length << symbolLength];
+		for (int group = 0; group < codes.length; group++) {
+			EncodeTable table = codes[group].getEncodeTable();
+			table.copyTo(flatCodes, flatLengths, group << symbolLength);
+		}
+	}
+}
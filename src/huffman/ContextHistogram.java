@@ -0,0 +1,89 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Counts the fixed length symbols of a byte stream by the symbol before them, their order-1
+ * context. The first symbol is counted in context 0. Counts are kept in one dense array
+ * indexed by context and symbol value.
+ */
+public class ContextHistogram {
+	private final int symbolLength;
+	private final long mask;
+	private final long[] counts;
+	private long pending;
+	private int pendingBits;
+	private int context;
+
+	/**
+	 * @param symbolLength - bit length of the symbols (1 to ContextCode.MAX_SYMBOL_LENGTH)
+	 */
+	public ContextHistogram(int symbolLength) {
+		if (symbolLength < 1 || symbolLength > ContextCode.MAX_SYMBOL_LENGTH)
+			throw new IllegalArgumentException("Symbol length must be between 1 and " + ContextCode.MAX_SYMBOL_LENGTH + ".");
+		this.symbolLength = symbolLength;
+		this.mask = (1L << symbolLength) - 1;
+		this.counts = new long[1 << (2 * symbolLength)];
+	}
+
+	/**
+	 * Counts the symbols of the bytes between the position and the limit of the buffer,
+	 * without moving its position. Bits that don't make a whole symbol are kept for the next call.
+	 *
+	 * @param buffer - bytes of the stream
+	 */
+	public void update(ByteBuffer buffer) {
+		long bits = pending;
+		int nBits = pendingBits;
+		int previous = context;
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			bits = (bits << 8) | (buffer.get(i) & 0xFF);
+			nBits += 8;
+			while (nBits >= symbolLength) {
+				nBits -= symbolLength;
+				int symbol = (int) ((bits >>> nBits) & mask);
+				counts[(previous << symbolLength) | symbol]++;
+				previous = symbol;
+			}
+		}
+		pending = bits;
+		pendingBits = nBits;
+		context = previous;
+	}
+
+	/**
+	 * Counts the last incomplete symbol, padded with 0s, as the coder does.
+	 */
+	public void finish() {
+		if (pendingBits > 0) {
+			int symbol = (int) ((pending << (symbolLength - pendingBits)) & mask);
+			counts[(context << symbolLength) | symbol]++;
+			context = symbol;
+			pendingBits = 0;
+		}
+	}
+
+	/**
+	 * @param context - the previous symbol
+	 * @return the occurrences of each symbol after it
+	 */
+	public long[] getCounts(int context) {
+		long[] row = new long[1 << symbolLength];
+		System.arraycopy(counts, context << symbolLength, row, 0, row.length);
+		return row;
+	}
+
+	/**
+	 * @return the number of symbols counted
+	 */
+	public long getTotal() {
+		long total = 0;
+		for (long count : counts)
+			total += count;
+		return total;
+	}
+
+	public int getSymbolLength() {
+		return symbolLength;
+	}
+}
@@ -0,0 +1,321 @@
+package huffman;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.TreeMap;
+
+import huffman.tree.HuffmanNode;
+import huffman.tree.Leaf;
+import huffman.tree.Node;
+
+/**
+ * Lookup table decoder for a prefix code. The primary table is indexed by the next
+ * <code>PRIMARY_BITS</code> bits of the input; codes longer than that go through
+ * secondary tables linked from the primary one. Each leaf entry holds the symbol index
+ * and the number of bits its code takes from the current table.
+ */
+public class DecodeTable {
+	public static final int PRIMARY_BITS = 10;
+	private static final int SECONDARY_BITS = 8;
+	private static final int WORD_BITS = 64;
+	private static final int LINK = 0x80;
+	private static final int LENGTH_MASK = 0x7F;
+	private static final int INDEX_SHIFT = 8;
+
+	private final long[] codes;
+	private final int[] lengths;
+	private final long[] symbols;
+	private final int[] widths;
+	private final int primaryBits;
+	private final int maxCodeLength;
+	private final int maxWidth;
+	private int[] table;
+	private int size;
+
+	/**
+	 * @param codes   - code of each symbol, right aligned
+	 * @param lengths - length of each code
+	 * @param symbols - bits of each symbol, right aligned
+	 * @param widths  - number of bits of each symbol
+	 * @throws Exception if a code is longer than a refill of the reader or a symbol doesn't fit in 64 bits
+	 */
+	public DecodeTable(long[] codes, int[] lengths, long[] symbols, int[] widths) throws Exception {
+		this.codes = codes;
+		this.lengths = lengths;
+		this.symbols = symbols;
+		this.widths = widths;
+
+		int max = 1;
+		int maxWidth = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			if (lengths[i] > BitReader.REFILL_BITS)
+				throw new Exception("Codes longer than " + BitReader.REFILL_BITS + " bits are not supported.");
+			if (widths[i] > WORD_BITS)
+				throw new Exception("Symbols longer than " + WORD_BITS + " bits are not supported.");
+			max = Math.max(max, lengths[i]);
+			maxWidth = Math.max(maxWidth, widths[i]);
+		}
+		maxCodeLength = max;
+		this.maxWidth = maxWidth;
+		primaryBits = Math.min(PRIMARY_BITS, maxCodeLength);
+
+		List<Integer> all = new ArrayList<>(lengths.length);
+		for (int i = 0; i < lengths.length; i++)
+			if (lengths[i] > 0)
+				all.add(i);
+		table = new int[1 << primaryBits];
+		fill(all, 0, primaryBits);
+		table = Arrays.copyOf(table, size);
+	}
+
+	/**
+	 * Builds the table from the codes of the leaves of a Huffman tree.
+	 *
+	 * @param root - the root of the huffman tree
+	 */
+	public static DecodeTable fromTree(HuffmanNode root) throws Exception {
+		List<Leaf> leaves = new ArrayList<>();
+		List<Long> leafCodes = new ArrayList<>();
+		List<Integer> leafLengths = new ArrayList<>();
+		Stack<HuffmanNode> searchQueue = new Stack<>();
+		Stack<Long> codeStack = new Stack<>();
+		Stack<Integer> lengthStack = new Stack<>();
+		searchQueue.push(root);
+		codeStack.push(0L);
+		lengthStack.push(0);
+		while (!searchQueue.isEmpty()) {
+			HuffmanNode node = searchQueue.pop();
+			long code = codeStack.pop();
+			int length = lengthStack.pop();
+			if (node instanceof Node) {
+				searchQueue.push(((Node) node).getRight());
+				codeStack.push((code << 1) | 1);
+				lengthStack.push(length + 1);
+				searchQueue.push(((Node) node).getLeft());
+				codeStack.push(code << 1);
+				lengthStack.push(length + 1);
+			} else {
+				leaves.add((Leaf) node);
+				leafCodes.add(code);
+				leafLengths.add(length);
+			}
+		}
+
+		int n = leaves.size();
+		long[] codes = new long[n];
+		int[] lengths = new int[n];
+		long[] symbols = new long[n];
+		int[] widths = new int[n];
+		for (int i = 0; i < n; i++) {
+			BitSequence symbol = leaves.get(i).getSymbol();
+			codes[i] = leafCodes.get(i);
+			lengths[i] = leafLengths.get(i);
+			widths[i] = symbol.getNumberOfBits();
+			symbols[i] = symbol.getBits(0, Math.min(WORD_BITS, widths[i]));
+		}
+		return new DecodeTable(codes, lengths, symbols, widths);
+	}
+
+	/**
+	 * Decodes every complete code in [from, to) and writes the symbols to the output.
+	 *
+	 * @param in   - the coded bits
+	 * @param from - first bit to decode (inclusive)
+	 * @param to   - end of the coded bits (exclusive)
+	 * @param out  - where the decoded symbols are written
+	 * @return the position after the last decoded code
+	 * @throws IOException 
+	 */
+	public int decode(BitSequence in, int from, int to, BitWriter out) throws IOException {
+		return (int) decode(new BitReader(in, from), to, out);
+	}
+
+	/**
+	 * Decodes every complete code from the position of the reader up to <code>to</code>.
+	 * One refill of the reader serves as many codes as fit in the bits it loads.
+	 *
+	 * @param in  - the coded bits
+	 * @param to  - end of the coded bits (exclusive)
+	 * @param out - where the decoded symbols are written
+	 * @return the position after the last decoded code
+	 */
+	public long decode(BitReader in, long to, BitWriter out) throws IOException {
+		long pos = in.getPosition();
+		while (pos < to) {
+			in.refill();
+			long window = in.window();
+			// codes that start up to budget are whole in the window, rest is what is left of the input
+			int budget = in.available() - maxCodeLength;
+			int rest = (int) Math.min(to - pos, WORD_BITS);
+			int used = 0;
+			do {
+				int entry = lookup(window << used);
+				int length = entry & LENGTH_MASK;
+				if (length == 0 || used + length > rest) {
+					in.consume(used);
+					return pos + used;
+				}
+				int symbol = entry >>> INDEX_SHIFT;
+				out.write(symbols[symbol], widths[symbol]);
+				used += length;
+			} while (used <= budget && used < rest);
+			in.consume(used);
+			pos += used;
+		}
+		return pos;
+	}
+
+	/**
+	 * Decodes symbols that were dealt round-robin to four streams, symbol i to stream i % 4.
+	 * The streams don't depend on each other, so the four lookups of a round can run at the
+	 * same time instead of each waiting for the length of the code before it. One refill of
+	 * each stream serves as many rounds as the longest code allows.
+	 *
+	 * @param streams - a reader at the start of each stream
+	 * @param count   - number of symbols of all the streams together
+	 * @param out     - where the decoded symbols are written, in their original order
+	 * @throws IOException if the bits of a stream are not a code
+	 */
+	public void decode(BitReader[] streams, long count, BitWriter out) throws IOException {
+		if (streams.length != Format.INTERLEAVED_STREAMS)
+			throw new IllegalArgumentException("The interleaved format has " + Format.INTERLEAVED_STREAMS + " streams.");
+		BitReader s0 = streams[0];
+		BitReader s1 = streams[1];
+		BitReader s2 = streams[2];
+		BitReader s3 = streams[3];
+		int rounds = BitReader.REFILL_BITS / maxCodeLength;
+		boolean packed = Format.INTERLEAVED_STREAMS * maxWidth <= WORD_BITS;
+		long refills = count / (Format.INTERLEAVED_STREAMS * (long) rounds);
+		for (long i = 0; i < refills; i++) {
+			s0.refill();
+			s1.refill();
+			s2.refill();
+			s3.refill();
+			for (int j = 0; j < rounds; j++) {
+				int e0 = lookup(s0.window());
+				int e1 = lookup(s1.window());
+				int e2 = lookup(s2.window());
+				int e3 = lookup(s3.window());
+				int l0 = e0 & LENGTH_MASK;
+				int l1 = e1 & LENGTH_MASK;
+				int l2 = e2 & LENGTH_MASK;
+				int l3 = e3 & LENGTH_MASK;
+				if (l0 == 0 || l1 == 0 || l2 == 0 || l3 == 0)
+					throw new IOException("The coded bits don't match the code.");
+				s0.consume(l0);
+				s1.consume(l1);
+				s2.consume(l2);
+				s3.consume(l3);
+				int i0 = e0 >>> INDEX_SHIFT;
+				int i1 = e1 >>> INDEX_SHIFT;
+				int i2 = e2 >>> INDEX_SHIFT;
+				int i3 = e3 >>> INDEX_SHIFT;
+				if (packed) {
+					// the four symbols go out in one write
+					long bits = (symbols[i0] << widths[i1]) | symbols[i1];
+					bits = (bits << widths[i2]) | symbols[i2];
+					bits = (bits << widths[i3]) | symbols[i3];
+					out.write(bits, widths[i0] + widths[i1] + widths[i2] + widths[i3]);
+				} else {
+					out.write(symbols[i0], widths[i0]);
+					out.write(symbols[i1], widths[i1]);
+					out.write(symbols[i2], widths[i2]);
+					out.write(symbols[i3], widths[i3]);
+				}
+			}
+		}
+		// the last symbols, fewer than a refill of every stream
+		for (long i = refills * Format.INTERLEAVED_STREAMS * rounds; i < count; i++) {
+			BitReader in = streams[(int) (i % Format.INTERLEAVED_STREAMS)];
+			if (in.available() < maxCodeLength)
+				in.refill();
+			int entry = lookup(in.window());
+			int length = entry & LENGTH_MASK;
+			if (length == 0)
+				throw new IOException("The coded bits don't match the code.");
+			in.consume(length);
+			out.write(symbols[entry >>> INDEX_SHIFT], widths[entry >>> INDEX_SHIFT]);
+		}
+	}
+
+	/**
+	 * Finds the code the bits start with, for decoders that pick a table for every symbol.
+	 *
+	 * @param bits - the next bits of the input, left aligned
+	 * @return (index of the symbol << 8) | length of the code, with a length of 0 if no code matches
+	 */
+	int lookup(long bits) {
+		int levelBits = primaryBits;
+		int consumed = 0;
+		int entry = table[(int) (bits >>> (WORD_BITS - levelBits))];
+		while ((entry & LINK) != 0) {
+			bits <<= levelBits;
+			consumed += levelBits;
+			levelBits = entry & LENGTH_MASK;
+			entry = table[(entry >>> INDEX_SHIFT) + (int) (bits >>> (WORD_BITS - levelBits))];
+		}
+		return (entry & ~LENGTH_MASK & ~LINK) | (consumed + (entry & LENGTH_MASK));
+	}
+
+	/**
+	 * @param index - index of a symbol, as lookup returns it
+	 */
+	long getSymbol(int index) {
+		return symbols[index];
+	}
+
+	int getWidth(int index) {
+		return widths[index];
+	}
+
+	public int getMaxCodeLength() {
+		return maxCodeLength;
+	}
+
+	/**
+	 * Fills one table level with the given codes and returns where it starts.
+	 *
+	 * @param members   - indexes of the codes that go through this level
+	 * @param consumed  - number of code bits consumed by the previous levels
+	 * @param levelBits - number of bits that index this level
+	 */
+	private int fill(List<Integer> members, int consumed, int levelBits) {
+		int base = allocate(1 << levelBits);
+		Map<Integer, List<Integer>> longer = new TreeMap<>();
+		for (int member : members) {
+			int rest = lengths[member] - consumed;
+			if (rest <= levelBits) {
+				int first = slice(member, consumed, rest) << (levelBits - rest);
+				int entry = (member << INDEX_SHIFT) | rest;
+				Arrays.fill(table, base + first, base + first + (1 << (levelBits - rest)), entry);
+			} else {
+				longer.computeIfAbsent(slice(member, consumed, levelBits), k -> new ArrayList<>()).add(member);
+			}
+		}
+		for (Map.Entry<Integer, List<Integer>> group : longer.entrySet()) {
+			int max = 0;
+			for (int member : group.getValue())
+				max = Math.max(max, lengths[member]);
+			int subBits = Math.min(SECONDARY_BITS, max - consumed - levelBits);
+			int sub = fill(group.getValue(), consumed + levelBits, subBits);
+			table[base + group.getKey()] = (sub << INDEX_SHIFT) | LINK | subBits;
+		}
+		return base;
+	}
+
+	private int slice(int member, int consumed, int count) {
+		return (int) ((codes[member] >>> (lengths[member] - consumed - count)) & ((1L << count) - 1));
+	}
+
+	private int allocate(int entries) {
+		if (size + entries > table.length)
+			table = Arrays.copyOf(table, Math.max(size + entries, table.length * 2));
+		int base = size;
+		size += entries;
+		return base;
+	}
+}
@@ -1,65 +1,28 @@
 package huffman;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.util.Map;
-import java.util.Stack;
-import huffman.tree.HuffmanNode;
-import huffman.tree.Leaf;
-import huffman.tree.Node;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
 
 public class Decompressor {
 
-	private static final int SHORT_BIT_LENGTH = 16;
-	private static final int SYMBOL_BIT_LENGHT = 8;
-	private static int dfsLength = 0;
-	private static int nSymbol = 0;
-	private static int initialJump = 0;
-	private static int finalJump = 0;
-	private static int symbolLenght = 0;
-
 	/**
 	 * Method for when the probabilities are not known a priori. It has to build the
 	 * Huffman tree, from the header of the compressed file.
 	 * 
 	 * @param compressedFilePath   - compressed file
-	 * @param symbolLength         - symbol length
 	 * @param decompressedFilePath - file to write, after decompressing
 	 */
 	public static void decompressFile(String compressedFilePath, String decompressedFilePath) {
+		HuffmanDecoder decoder = HuffmanPool.shared().acquireDecoder();
 		try {
-			long total = System.currentTimeMillis();
-			
-			File compressedFile = new File(compressedFilePath);
-			byte[] compressedFileBits = Files.readAllBytes(compressedFile.toPath());
-			BitSequence compressed = new BitSequence();
-			compressed.wrap(compressedFileBits);
-			
-			long huffman = System.currentTimeMillis();
-			HuffmanNode root = buildHuffmanTree(compressed);
-			huffman = System.currentTimeMillis() - huffman;
-			
-			int offset = SHORT_BIT_LENGTH + SYMBOL_BIT_LENGHT + dfsLength + nSymbol * symbolLenght + initialJump;
-			long decompress = System.currentTimeMillis();
-			BitSequence decompressed = decompress(compressed, root, offset);
-			decompress = System.currentTimeMillis() - decompress;
-			
-			long write = System.currentTimeMillis();
-			FileOutputStream fos = new FileOutputStream(decompressedFilePath);
-			Utils.writeOutput(fos, decompressed);
-			write = System.currentTimeMillis() - write;
-			fos.close();
-			
-			total = System.currentTimeMillis() - total;
-			System.out.printf("[DECOMPRESSOR] Generate huffman tree: %.2f%s\n", ((huffman/(total*1.0))*100), "%");
-			System.out.printf("[DECOMPRESSOR] Decompression: %.2f%s\n", ((decompress/(total*1.0))*100), "%");
-			System.out.printf("[DECOMPRESSOR] Write: %.2f%s\n", ((write/(total*1.0))*100), "%");
-		} catch (IOException e) {
-			e.printStackTrace();
+			decoder.decompress(compressedFilePath, decompressedFilePath, ForkJoinPool.commonPool());
 		} catch (Exception e) {
-			e.printStackTrace(); 
+			e.printStackTrace();
+		} finally {
+			HuffmanPool.shared().release(decoder);
 		}
 	}
 
@@ -71,115 +34,71 @@ public class Decompressor {
 	 * @param probabilitiesPath    - file with the probability distribution
 	 */
 	public static void decompressFile(String compressedFilePath, String decompressedFilePath, String probabilitiesPath) {
+		HuffmanDecoder decoder = HuffmanPool.shared().acquireDecoder();
 		try {
-			File compressedFile = new File(compressedFilePath);
-			byte[] compressedFileBits = Files.readAllBytes(compressedFile.toPath());
-			BitSequence compressed = new BitSequence();
-			compressed.wrap(compressedFileBits);
-			File probabilitiesFile = new File(probabilitiesPath);
-			Map<BitSequence, Double> probabilitiesDictionary = Utils.getPrioriProbabilities(probabilitiesFile);
-			HuffmanNode root = Utils.createHuffmanTree(probabilitiesDictionary);
-			BitSequence decompressed = decompress(compressed, root, 0);
-			FileOutputStream fos = new FileOutputStream(decompressedFilePath);
-			Utils.writeOutput(fos, decompressed);
-			fos.close();
+			decoder.decompress(compressedFilePath, decompressedFilePath, probabilitiesPath);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			HuffmanPool.shared().release(decoder);
 		}
 	}
 
-	private static HuffmanNode buildHuffmanTree(BitSequence compressed) {
-		HuffmanNode root = new Node(null, null, 1.0);
+	/**
+	 * Method for files compressed with a trained dictionary.
+	 * 
+	 * @param compressedFilePath   - compressed file
+	 * @param decompressedFilePath - file to write, after decompression
+	 * @param dictionary           - the dictionary the file was compressed with
+	 */
+	public static void decompressFile(String compressedFilePath, String decompressedFilePath, HuffmanDictionary dictionary) {
+		HuffmanDecoder decoder = HuffmanPool.shared().acquireDecoder();
 		try {
-			readHeader(compressed);
-			Stack<HuffmanNode> stack = new Stack<>();
-			stack.push(root);
-			int prev = compressed.getBitValue(SHORT_BIT_LENGTH + SYMBOL_BIT_LENGHT);
-			
-			for (int i = SHORT_BIT_LENGTH + SYMBOL_BIT_LENGHT+1; i < SHORT_BIT_LENGTH + SYMBOL_BIT_LENGHT + dfsLength; i++) {
-				int curr = compressed.getBitValue(i);
-				Node head = (Node) stack.peek();
-
-				if (curr == 1) {
-					BitSequence symbol = compressed.getBitChunk((SHORT_BIT_LENGTH + SYMBOL_BIT_LENGHT + dfsLength + nSymbol * symbolLenght),
-																(SHORT_BIT_LENGTH + SYMBOL_BIT_LENGHT + dfsLength + nSymbol * symbolLenght + symbolLenght));
-					nSymbol++;
-					
-					Leaf leaf = new Leaf(symbol, 0);
-
-					// 0 -> 1
-					if (prev == 0)
-						head.setLeft(leaf);
-					// 1 -> 1
-					else {
-						head.setRight(leaf);
-						stack.pop();
-					}
-				} else {
-					Node newNode = new Node(null, null, 0);
-
-					// 0 -> 0
-					if (prev == 0) {
-						head.setLeft(newNode);
-						stack.push(newNode);
-					}
-					// 1 -> 1
-					else {
-						head.setRight(newNode);
-						stack.pop();
-						stack.push(newNode);
-					}
-				}
-
-				prev = curr;
-			}
-
-			// take care of the last bit
-			Node head = (Node) stack.peek();
-			BitSequence symbol = compressed.getBitChunk((SHORT_BIT_LENGTH + SYMBOL_BIT_LENGHT + dfsLength + nSymbol * symbolLenght),
-														(SHORT_BIT_LENGTH + SYMBOL_BIT_LENGHT + dfsLength + nSymbol * symbolLenght + symbolLenght));
-			nSymbol++;
-			Leaf leaf = new Leaf(symbol, 0);
-
-			if (prev == 0) {
-				head.setLeft(leaf);
-			} else
-				head.setRight(leaf);
-
+			decoder.decompress(compressedFilePath, decompressedFilePath, dictionary);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			HuffmanPool.shared().release(decoder);
 		}
-
-		return root;
 	}
-	
-	private static BitSequence decompress(BitSequence compressed, HuffmanNode root, int start) {
-		BitSequence decompressed = new BitSequence();
-		Node curr = (Node) root;
-		for (int i = start; i < compressed.getNumberOfBits()-finalJump; i++) {
-			HuffmanNode next;
-			if (!compressed.isSet(i)) {
-				next = curr.getLeft();
-			}
-			else {
-				next = curr.getRight();
-			}
-			// found a leaf; go back to the root of the tree
-			if (next instanceof Leaf) {
-				decompressed = decompressed.concat(((Leaf) next).getSymbol());
-				curr = (Node) root;
-			} else
-				curr = (Node) next;
+
+	/**
+	 * Reads a range of a file compressed in the block format, decoding only the blocks that cover it.
+	 * Files that were stored instead are read directly.
+	 * 
+	 * @param compressedFilePath - compressed file, in the block or stored format
+	 * @param offset             - first byte of the original file to read
+	 * @param length             - number of bytes to read
+	 * @return the bytes read
+	 * @throws IllegalArgumentException if the file is in another format
+	 */
+	public static byte[] read(String compressedFilePath, long offset, int length) throws Exception {
+		Format format = Format.of(compressedFilePath);
+		if (format == Format.STORED)
+			return readStored(compressedFilePath, offset, length);
+		if (format != Format.BLOCK)
+			throw new IllegalArgumentException("Not a block file: only the block and stored formats can be read by range, not " + format + ".");
+		BlockFile blocks = BlockFile.open(compressedFilePath);
+		try {
+			return blocks.read(offset, length);
+		} finally {
+			blocks.close();
 		}
-		return decompressed;
-	}
-	
-	private static void readHeader(BitSequence compressed) throws Exception {
-		symbolLenght = Integer.parseInt(compressed.getBitChunk(0, 5).toString(), 2);
-		initialJump = Integer.parseInt(compressed.getBitChunk(5, 8).toString(), 2);
-		finalJump = Integer.parseInt(compressed.getBitChunk(8, 11).toString(), 2);
-		dfsLength = Integer.parseInt(compressed.getBitChunk(11, SHORT_BIT_LENGTH + SYMBOL_BIT_LENGHT).toString(), 2);
-		nSymbol = 0;
 	}
 
+	private static byte[] readStored(String compressedFilePath, long offset, int length) throws Exception {
+		if (offset < 0 || length < 0)
+			throw new Exception("Illegal arguments.");
+		FileChannel channel = FileChannel.open(Paths.get(compressedFilePath), StandardOpenOption.READ);
+		try {
+			// header: 0 <format>
+			long position = offset + 2;
+			ByteBuffer out = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - position)));
+			while (out.hasRemaining() && channel.read(out, position + out.position()) >= 0)
+				;
+			return out.array();
+		} finally {
+			channel.close();
+		}
+	}
 }
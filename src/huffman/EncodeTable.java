@@ -0,0 +1,273 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Stack;
+
+import huffman.tree.HuffmanNode;
+import huffman.tree.Leaf;
+import huffman.tree.Node;
+
+/**
+ * Code and code length of each symbol, in flat arrays indexed by the symbol value. Coding
+ * gathers the codes in a 64-bit accumulator that is handed over a whole word at a time, so
+ * the inner loop does no allocation, hashing or per-bit work.
+ */
+public class EncodeTable {
+	public static final int MAX_CODE_LENGTH = 32;
+	private static final int WORD_BITS = 64;
+	private static final int BLOCK_SIZE = 1 << 12;
+
+	private final int symbolLength;
+	private final int[] codes;
+	private final byte[] lengths;
+
+	/**
+	 * Where the coded words go, such as BitWriter::write or BitSequence::appendBits.
+	 */
+	public interface Sink {
+		void write(long bits, int count) throws IOException;
+	}
+
+	/**
+	 * @param symbolLength - bit length of the symbols
+	 * @param codes        - code of each symbol value, right aligned
+	 * @param lengths      - code length of each symbol value, 0 for symbols without a code
+	 */
+	public EncodeTable(int symbolLength, int[] codes, byte[] lengths) {
+		this.symbolLength = symbolLength;
+		this.codes = codes;
+		this.lengths = lengths;
+	}
+
+	/**
+	 * Takes the codes from the paths to the leaves of a Huffman tree.
+	 *
+	 * @param root         - the root of the huffman tree
+	 * @param symbolLength - bit length of the symbols
+	 * @throws Exception if a code is longer than MAX_CODE_LENGTH
+	 */
+	public static EncodeTable fromTree(HuffmanNode root, int symbolLength) throws Exception {
+		int[] codes = new int[1 << symbolLength];
+		byte[] lengths = new byte[1 << symbolLength];
+		Stack<HuffmanNode> searchQueue = new Stack<>();
+		Stack<Integer> codeStack = new Stack<>();
+		Stack<Integer> lengthStack = new Stack<>();
+		searchQueue.push(root);
+		codeStack.push(0);
+		lengthStack.push(0);
+		while (!searchQueue.isEmpty()) {
+			HuffmanNode node = searchQueue.pop();
+			int code = codeStack.pop();
+			int length = lengthStack.pop();
+			if (node instanceof Node) {
+				if (length == MAX_CODE_LENGTH)
+					throw new Exception("Codes longer than " + MAX_CODE_LENGTH + " bits are not supported, use the canonical format.");
+				searchQueue.push(((Node) node).getRight());
+				codeStack.push((code << 1) | 1);
+				lengthStack.push(length + 1);
+				searchQueue.push(((Node) node).getLeft());
+				codeStack.push(code << 1);
+				lengthStack.push(length + 1);
+			} else {
+				int symbol = (int) ((Leaf) node).getSymbol().getBits(0, symbolLength);
+				codes[symbol] = code;
+				lengths[symbol] = (byte) length;
+			}
+		}
+		return new EncodeTable(symbolLength, codes, lengths);
+	}
+
+	/**
+	 * Takes the codes of a mapping. Symbols of other lengths are left out.
+	 *
+	 * @param mapping      - mapping of each symbol to its code
+	 * @param symbolLength - bit length of the symbols
+	 * @throws Exception if a code is longer than MAX_CODE_LENGTH
+	 */
+	public static EncodeTable fromMapping(Map<BitSequence, BitSequence> mapping, int symbolLength) throws Exception {
+		int[] codes = new int[1 << symbolLength];
+		byte[] lengths = new byte[1 << symbolLength];
+		for (Map.Entry<BitSequence, BitSequence> entry : mapping.entrySet()) {
+			if (entry.getKey().getNumberOfBits() != symbolLength)
+				continue;
+			int length = entry.getValue().getNumberOfBits();
+			if (length > MAX_CODE_LENGTH)
+				throw new Exception("Codes longer than " + MAX_CODE_LENGTH + " bits are not supported.");
+			int symbol = (int) entry.getKey().getBits(0, symbolLength);
+			codes[symbol] = (int) entry.getValue().getBits(0, length);
+			lengths[symbol] = (byte) length;
+		}
+		return new EncodeTable(symbolLength, codes, lengths);
+	}
+
+	public int getSymbolLength() {
+		return symbolLength;
+	}
+
+	/**
+	 * Copies the codes and code lengths into arrays that hold several tables one after the other.
+	 *
+	 * @param codes   - where the codes go
+	 * @param lengths - where the code lengths go
+	 * @param offset  - index of symbol 0 in both arrays
+	 */
+	void copyTo(int[] codes, byte[] lengths, int offset) {
+		System.arraycopy(this.codes, 0, codes, offset, this.codes.length);
+		System.arraycopy(this.lengths, 0, lengths, offset, this.lengths.length);
+	}
+
+	/**
+	 * @param counts - occurrences of each symbol value
+	 * @return the number of bits the codes of those symbols take
+	 */
+	public long getCodedLength(long[] counts) {
+		long bits = 0;
+		for (int symbol = 0; symbol < counts.length; symbol++)
+			bits += counts[symbol] * lengths[symbol];
+		return bits;
+	}
+
+	/**
+	 * Codes the bytes between the position and the limit of the buffer, without moving its
+	 * position. A last incomplete symbol is padded with 0s.
+	 *
+	 * @param in  - the bytes to code, such as a mapped region of the file
+	 * @param out - where the codes are written
+	 * @throws IOException if a symbol has no code
+	 */
+	public void code(ByteBuffer in, Sink out) throws IOException {
+		int from = in.position();
+		SymbolUnpacker unpacker = SymbolUnpacker.get();
+		if (unpacker != null && symbolLength <= unpacker.getMaxSymbolLength()) {
+			// the table is shared by the threads of a parallel coder, so the block isn't a field
+			int[] block = new int[BLOCK_SIZE];
+			int bytes;
+			while ((bytes = unpacker.unpack(in, from, in.limit(), symbolLength, block)) > 0) {
+				code(block, bytes * 8 / symbolLength, out);
+				from += bytes;
+			}
+		}
+		long mask = (1L << symbolLength) - 1;
+		long bits = 0;
+		int nBits = 0;
+		long word = 0;
+		int wordBits = 0;
+		int limit = in.limit();
+		for (int i = from; i <= limit; i++) {
+			if (i < limit) {
+				bits = (bits << 8) | (in.get(i) & 0xFF);
+				nBits += 8;
+			} else if (nBits > 0) {
+				// only the end of the file can be in the middle of a symbol
+				bits <<= symbolLength - nBits;
+				nBits = symbolLength;
+			}
+			while (nBits >= symbolLength) {
+				nBits -= symbolLength;
+				int symbol = (int) ((bits >>> nBits) & mask);
+				int length = lengths[symbol];
+				long code = codes[symbol] & 0xFFFFFFFFL;
+				if (length == 0)
+					throw new IOException("Symbol " + symbol + " has no code.");
+				int free = WORD_BITS - wordBits;
+				if (length <= free) {
+					word = (word << length) | code;
+					wordBits += length;
+				} else {
+					out.write((word << free) | (code >>> (length - free)), WORD_BITS);
+					word = code;
+					wordBits = length - free;
+				}
+			}
+		}
+		out.write(word, wordBits);
+	}
+
+	/**
+	 * Deals the symbols of the buffer to streams round-robin and codes each one into its
+	 * stream, in a single pass: the symbol after one that went to stream s goes to stream s + 1,
+	 * and the one after the last stream to stream 0. A last incomplete symbol is padded with 0s.
+	 *
+	 * @param in      - the bytes to code, such as a mapped region of the file
+	 * @param stream  - stream of the first symbol of the buffer
+	 * @param streams - where the codes of each stream are written
+	 * @return the stream of the symbol that follows the buffer
+	 * @throws IOException if a symbol has no code
+	 */
+	public int code(ByteBuffer in, int stream, BitWriter[] streams) throws IOException {
+		int from = in.position();
+		SymbolUnpacker unpacker = SymbolUnpacker.get();
+		if (unpacker != null && symbolLength <= unpacker.getMaxSymbolLength()) {
+			int[] block = new int[BLOCK_SIZE];
+			int bytes;
+			while ((bytes = unpacker.unpack(in, from, in.limit(), symbolLength, block)) > 0) {
+				int count = bytes * 8 / symbolLength;
+				for (int i = 0; i < count; i++) {
+					code(block[i], streams[stream]);
+					if (++stream == streams.length)
+						stream = 0;
+				}
+				from += bytes;
+			}
+		}
+		long mask = (1L << symbolLength) - 1;
+		long bits = 0;
+		int nBits = 0;
+		int limit = in.limit();
+		for (int i = from; i <= limit; i++) {
+			if (i < limit) {
+				bits = (bits << 8) | (in.get(i) & 0xFF);
+				nBits += 8;
+			} else if (nBits > 0) {
+				bits <<= symbolLength - nBits;
+				nBits = symbolLength;
+			}
+			while (nBits >= symbolLength) {
+				nBits -= symbolLength;
+				code((int) ((bits >>> nBits) & mask), streams[stream]);
+				if (++stream == streams.length)
+					stream = 0;
+			}
+		}
+		return stream;
+	}
+
+	private void code(int symbol, BitWriter out) throws IOException {
+		int length = lengths[symbol];
+		if (length == 0)
+			throw new IOException("Symbol " + symbol + " has no code.");
+		out.write(codes[symbol] & 0xFFFFFFFFL, length);
+	}
+
+	/**
+	 * Codes symbols that were already split out of the file, such as tokens.
+	 *
+	 * @param symbols - symbol values
+	 * @param count   - number of symbols to code from the start of the array
+	 * @param out     - where the codes are written
+	 * @throws IOException if a symbol has no code
+	 */
+	public void code(int[] symbols, int count, Sink out) throws IOException {
+		long word = 0;
+		int wordBits = 0;
+		for (int i = 0; i < count; i++) {
+			int symbol = symbols[i];
+			int length = lengths[symbol];
+			long code = codes[symbol] & 0xFFFFFFFFL;
+			if (length == 0)
+				throw new IOException("Symbol " + symbol + " has no code.");
+			int free = WORD_BITS - wordBits;
+			if (length <= free) {
+				word = (word << length) | code;
+				wordBits += length;
+			} else {
+				out.write((word << free) | (code >>> (length - free)), WORD_BITS);
+				word = code;
+				wordBits = length - free;
+			}
+		}
+		out.write(word, wordBits);
+	}
+}
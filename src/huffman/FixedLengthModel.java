@@ -0,0 +1,48 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Symbols are fixed length slices of the bits of the file, the last one padded with 0s.
+ * Each symbol decodes to itself.
+ */
+public class FixedLengthModel implements SymbolModel {
+	public static final FixedLengthModel BYTES = new FixedLengthModel(8);
+
+	private final int symbolLength;
+
+	/**
+	 * @param symbolLength - bit length of the symbols (1 to 31)
+	 */
+	public FixedLengthModel(int symbolLength) {
+		if (symbolLength < 1 || symbolLength > 31)
+			throw new IllegalArgumentException("Symbol length must be between 1 and 31.");
+		this.symbolLength = symbolLength;
+	}
+
+	@Override
+	public int getSymbolLength() {
+		return symbolLength;
+	}
+
+	@Override
+	public void count(ByteBuffer in, Histogram histogram) {
+		histogram.update(in);
+	}
+
+	@Override
+	public void code(ByteBuffer in, EncodeTable table, EncodeTable.Sink out) throws IOException {
+		table.code(in, out);
+	}
+
+	@Override
+	public long getBits(int symbol) {
+		return symbol;
+	}
+
+	@Override
+	public int getWidth(int symbol) {
+		return symbolLength;
+	}
+}
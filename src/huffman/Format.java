@@ -0,0 +1,75 @@
+package huffman;
+
+import java.io.FileInputStream;
+
+/**
+ * Layouts of the compressed file. The original tree layout starts with the symbol length,
+ * which is never 0, so every other layout starts with a 0 byte followed by its id.
+ */
+public enum Format {
+	/** header: <symbol length> <initial jump> <final jump> <dfs size> <dfs> <symbols in dfs order> */
+	TREE(-1),
+	/** header: 0 <id> <symbol length> <final jump> <original size> <code lengths> */
+	CANONICAL(1),
+	/** header: 0 <id> <symbol length> 000 <code lengths>, then the blocks and a trailing index of the blocks */
+	BLOCK(2),
+	/** header: 0 <id> <symbol length> 000, then frames of <original size> <payload size> <code lengths> <codes>, ended by a frame of size 0 */
+	STREAM(3),
+	/** header: 0 <id> <symbol length> 000, then the codes of a tree updated after each symbol, ended by the escape code, 1 and the padding of the last symbol */
+	ADAPTIVE(4),
+	/** header: 0 <id> <symbol length> <final jump> <tokens> <code lengths> */
+	TOKEN(5),
+	/** header: 0 <id> <symbol length> <final jump> <original size> <own table bit per context> <code lengths of each table> */
+	CONTEXT(6),
+	/** header: 0 <id>, then the original bytes, for files that coding would make bigger */
+	STORED(7),
+	/** header: 0 <id> <final jump> <dictionary id>, then the codes of a code table shared by many files */
+	DICTIONARY(8),
+	/**
+	 * header: 0 <id> <symbol length> 000 <original size> <code lengths>, then a jump table of the byte
+	 * size of each stream but the last, 64 bits each, then the streams the symbols are dealt to
+	 * round-robin, each padded to a whole byte
+	 */
+	INTERLEAVED(9);
+
+	public static final int MARKER = 0;
+	/** Number of streams of the interleaved format. */
+	public static final int INTERLEAVED_STREAMS = 4;
+	static final int JUMP_TABLE_SIZE = (INTERLEAVED_STREAMS - 1) * 8;
+	private final int id;
+
+	private Format(int id) {
+		this.id = id;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @param compressedFilePath - a compressed file
+	 * @return the format the file was written with
+	 * @throws Exception if the header names an unknown format
+	 */
+	public static Format of(String compressedFilePath) throws Exception {
+		byte[] header = new byte[2];
+		FileInputStream fis = new FileInputStream(compressedFilePath);
+		int read = fis.read(header);
+		fis.close();
+		return of(read == header.length ? header : new byte[0]);
+	}
+
+	/**
+	 * @param header - first bytes of a compressed file
+	 * @return the format the file was written with
+	 * @throws Exception if the header names an unknown format
+	 */
+	public static Format of(byte[] header) throws Exception {
+		if (header.length < 2 || header[0] != MARKER)
+			return TREE;
+		for (Format format : values())
+			if (format != TREE && format.id == header[1])
+				return format;
+		throw new Exception("Unknown compressed file format " + header[1] + ".");
+	}
+}
@@ -0,0 +1,157 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the fixed length symbols of a byte stream in a dense array indexed by symbol value.
+ * Bits are sliced out of a 64-bit accumulator, so counting doesn't allocate. The array has a
+ * count for every symbol of the alphabet, so symbols are at most MAX_SYMBOL_LENGTH bits: 128MB
+ * of counts, and as much again for the code tables built from them.
+ */
+public class Histogram {
+	/** Longest symbols that can be counted. */
+	public static final int MAX_SYMBOL_LENGTH = 24;
+	private static final int BLOCK_SIZE = 1 << 12;
+	private final int symbolLength;
+	private final long mask;
+	private final long[] counts;
+	private long pending;
+	private int pendingBits;
+	private long total;
+	// symbols cut by the SIMD unpacker
+	private int[] block;
+
+	/**
+	 * @param symbolLength - bit length of the symbols (1 to MAX_SYMBOL_LENGTH)
+	 */
+	public Histogram(int symbolLength) {
+		if (symbolLength < 1 || symbolLength > MAX_SYMBOL_LENGTH)
+			throw new IllegalArgumentException("Symbol length must be between 1 and " + MAX_SYMBOL_LENGTH + ".");
+		this.symbolLength = symbolLength;
+		this.mask = (1L << symbolLength) - 1;
+		this.counts = new long[1 << symbolLength];
+	}
+
+	/**
+	 * Counts the symbols of the next bytes of the stream. Bits that don't make a whole symbol
+	 * are kept for the next call.
+	 *
+	 * @param buffer - bytes of the stream
+	 * @param offset - first byte to count
+	 * @param length - number of bytes to count
+	 */
+	public void update(byte[] buffer, int offset, int length) {
+		update(ByteBuffer.wrap(buffer, offset, length));
+	}
+
+	/**
+	 * Counts the symbols of the bytes between the position and the limit of the buffer,
+	 * without moving its position. The buffer can be a mapped region of the file.
+	 *
+	 * @param buffer - bytes of the stream
+	 */
+	public void update(ByteBuffer buffer) {
+		int from = buffer.position();
+		int limit = buffer.limit();
+		SymbolUnpacker unpacker = SymbolUnpacker.get();
+		if (unpacker != null && symbolLength <= unpacker.getMaxSymbolLength()) {
+			// a byte at a time up to the start of a symbol, then whole chunks
+			while (pendingBits != 0 && from < limit)
+				update(buffer, from, ++from);
+			if (block == null)
+				block = new int[BLOCK_SIZE];
+			int bytes;
+			while ((bytes = unpacker.unpack(buffer, from, limit, symbolLength, block)) > 0) {
+				update(block, bytes * 8 / symbolLength);
+				from += bytes;
+			}
+		}
+		update(buffer, from, limit);
+	}
+
+	private void update(ByteBuffer buffer, int from, int to) {
+		long bits = pending;
+		int nBits = pendingBits;
+		for (int i = from; i < to; i++) {
+			bits = (bits << 8) | (buffer.get(i) & 0xFF);
+			nBits += 8;
+			while (nBits >= symbolLength) {
+				nBits -= symbolLength;
+				counts[(int) ((bits >>> nBits) & mask)]++;
+				total++;
+			}
+		}
+		pending = bits;
+		pendingBits = nBits;
+	}
+
+	/**
+	 * Counts symbols that were already split out of the stream, such as tokens.
+	 *
+	 * @param symbols - symbol values
+	 * @param count   - number of symbols to count from the start of the array
+	 */
+	public void update(int[] symbols, int count) {
+		for (int i = 0; i < count; i++)
+			counts[symbols[i]]++;
+		total += count;
+	}
+
+	/**
+	 * Counts the last incomplete symbol, padded with 0s, as the coder does.
+	 */
+	public void finish() {
+		if (pendingBits > 0) {
+			counts[(int) ((pending << (symbolLength - pendingBits)) & mask)]++;
+			total++;
+			pendingBits = 0;
+		}
+	}
+
+	/**
+	 * Clears the counts so the histogram can be used for another stream.
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		pending = 0;
+		pendingBits = 0;
+		total = 0;
+	}
+
+	/**
+	 * Adds the counts of another histogram of the same symbol length.
+	 *
+	 * @param other - counts of another part of the stream
+	 */
+	public void merge(Histogram other) {
+		for (int symbol = 0; symbol < counts.length; symbol++)
+			counts[symbol] += other.counts[symbol];
+		total += other.total;
+	}
+
+	public long[] getCounts() {
+		return counts;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public int getSymbolLength() {
+		return symbolLength;
+	}
+
+	/**
+	 * @return the mapping of each symbol that appeared to its probability
+	 */
+	public Map<BitSequence, Double> getProbabilities() {
+		Map<BitSequence, Double> probabilities = new HashMap<>();
+		for (int symbol = 0; symbol < counts.length; symbol++)
+			if (counts[symbol] > 0)
+				probabilities.put(new BitSequence().appendBits(symbol, symbolLength), counts[symbol] / (double) total);
+		return probabilities;
+	}
+}
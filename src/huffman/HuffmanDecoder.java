@@ -0,0 +1,367 @@
+package huffman;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decompresses files. The header fields of the file being decoded and a reusable write
+ * buffer live in the instance, so a decoder must only be used by one thread at a time.
+ * Borrow them from a HuffmanPool to decompress in parallel. Where the time went is logged
+ * at FINE.
+ */
+public class HuffmanDecoder {
+
+	private static final int SHORT_BIT_LENGTH = 16;
+	private static final int DFS_SIZE_BIT_LENGTH = 13;
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+	private static final int STORED_HEADER_SIZE = 2;
+	private static final Logger LOGGER = Logger.getLogger(HuffmanDecoder.class.getName());
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+	private int dfsLength = 0;
+	private int nSymbol = 0;
+	private int initialJump = 0;
+	private int finalJump = 0;
+	private int symbolLength = 0;
+
+	/**
+	 * Clears what the last header read left, for the pool.
+	 */
+	void reset() {
+		dfsLength = 0;
+		nSymbol = 0;
+		initialJump = 0;
+		finalJump = 0;
+		symbolLength = 0;
+	}
+
+	/**
+	 * Method for when the probabilities are not known a priori. It has to build the
+	 * decode table from the header of the compressed file.
+	 * 
+	 * @param compressedFilePath   - compressed file
+	 * @param decompressedFilePath - file to write, after decompressing
+	 * @param pool                 - where the blocks of a file in the block format are decoded
+	 */
+	public void decompress(String compressedFilePath, String decompressedFilePath, ForkJoinPool pool) throws Exception {
+		long total = System.currentTimeMillis();
+		
+		Format format = Format.of(compressedFilePath);
+		if (format == Format.BLOCK) {
+			BlockFile blocks = BlockFile.open(compressedFilePath);
+			try {
+				blocks.decompressTo(decompressedFilePath, pool);
+			} finally {
+				blocks.close();
+			}
+			LOGGER.fine("[DECOMPRESSOR] Decoded " + blocks.getBlockCount() + " blocks in " + (System.currentTimeMillis() - total) + " ms");
+			return;
+		}
+		if (format == Format.STREAM || format == Format.ADAPTIVE) {
+			decompressStream(compressedFilePath, decompressedFilePath, format);
+			return;
+		}
+		if (format == Format.STORED) {
+			copyStored(compressedFilePath, decompressedFilePath);
+			return;
+		}
+		if (format == Format.DICTIONARY)
+			throw new Exception("The file was compressed with a dictionary, it can only be decompressed with the same one.");
+		
+		// the file is read through windows of it, so it can be larger than a buffer
+		FileChannel compressed = FileChannel.open(Paths.get(compressedFilePath), StandardOpenOption.READ);
+		long huffman;
+		long decompress;
+		try {
+			huffman = System.currentTimeMillis();
+			DecodeTable table = null;
+			ContextCode context = null;
+			BitReader in;
+			long offset;
+			finalJump = 0;
+			long originalSize = -1;
+			if (format == Format.CANONICAL || format == Format.INTERLEAVED) {
+				in = readCanonicalHeader(compressed);
+				originalSize = in.readBits(HuffmanEncoder.ORIGINAL_SIZE_BIT_LENGTH);
+				table = CanonicalCode.readHeader(in, symbolLength).getDecodeTable();
+				offset = (in.getPosition() + 7) / 8 * 8;
+			} else if (format == Format.CONTEXT) {
+				in = readCanonicalHeader(compressed);
+				originalSize = in.readBits(HuffmanEncoder.ORIGINAL_SIZE_BIT_LENGTH);
+				context = ContextCode.readHeader(in, symbolLength);
+				offset = (in.getPosition() + 7) / 8 * 8;
+			} else if (format == Format.TOKEN) {
+				in = readCanonicalHeader(compressed);
+				TokenModel model = TokenModel.readHeader(in);
+				CanonicalCode canonical = CanonicalCode.readHeader(in, symbolLength);
+				if (model.getSymbolLength() != symbolLength)
+					throw new Exception("The tokens don't match the symbol length of the header.");
+				table = canonical.getDecodeTable(model);
+				offset = (in.getPosition() + 7) / 8 * 8;
+			} else {
+				in = new BitReader(compressed, 0);
+				table = readTreeHeader(in);
+				offset = in.getPosition() + initialJump;
+			}
+			// the codes follow the header, so the same reader decodes them
+			in.skip(offset - in.getPosition());
+			huffman = System.currentTimeMillis() - huffman;
+			
+			decompress = System.currentTimeMillis();
+			long end = compressed.size() * 8 - finalJump;
+			if (format == Format.INTERLEAVED)
+				decompressInterleaved(compressed, table, offset, originalSize, decompressedFilePath);
+			else if (context != null)
+				decompress(in, context, end, originalSize, decompressedFilePath);
+			else
+				decompress(in, table, end, originalSize, decompressedFilePath);
+			decompress = System.currentTimeMillis() - decompress;
+		} finally {
+			compressed.close();
+		}
+		
+		total = System.currentTimeMillis() - total;
+		if (LOGGER.isLoggable(Level.FINE)) {
+			LOGGER.fine(String.format("[DECOMPRESSOR] Generate huffman tree: %.2f%s", ((huffman/(total*1.0))*100), "%"));
+			LOGGER.fine(String.format("[DECOMPRESSOR] Decompression: %.2f%s", ((decompress/(total*1.0))*100), "%"));
+		}
+	}
+
+	/**
+	 * Method for when the probabilities are known a priori. The code of the probabilities is
+	 * compiled once and kept in the shared PrioriModelRegistry.
+	 * 
+	 * @param compressedFilePath   - compressed file
+	 * @param decompressedFilePath - file to write, after decompression
+	 * @param probabilitiesPath    - file with the probability distribution
+	 */
+	public void decompress(String compressedFilePath, String decompressedFilePath, String probabilitiesPath) throws Exception {
+		DecodeTable table = PrioriModelRegistry.shared().get(probabilitiesPath).getDecodeTable();
+		FileChannel compressed = FileChannel.open(Paths.get(compressedFilePath), StandardOpenOption.READ);
+		try {
+			decompress(new BitReader(compressed, 0), table, compressed.size() * 8, -1, decompressedFilePath);
+		} finally {
+			compressed.close();
+		}
+	}
+
+	/**
+	 * Method for files compressed with a trained dictionary.
+	 * 
+	 * @param compressedFilePath   - compressed file
+	 * @param decompressedFilePath - file to write, after decompression
+	 * @param dictionary           - the dictionary the file was compressed with
+	 * @throws Exception if the file was compressed with another dictionary
+	 */
+	public void decompress(String compressedFilePath, String decompressedFilePath, HuffmanDictionary dictionary) throws Exception {
+		Format format = Format.of(compressedFilePath);
+		if (format == Format.STORED) {
+			copyStored(compressedFilePath, decompressedFilePath);
+			return;
+		}
+		FileChannel compressed = FileChannel.open(Paths.get(compressedFilePath), StandardOpenOption.READ);
+		try {
+			int headerSize = (int) Math.min(HuffmanDictionary.HEADER_SIZE, compressed.size());
+			BitSequence header = new BitSequence();
+			header.wrap(BlockIndex.readFully(compressed, 0, headerSize).array());
+			int finalJump = dictionary.checkHeader(header, format);
+			BitReader in = new BitReader(compressed, HuffmanDictionary.HEADER_SIZE * 8);
+			decompress(in, dictionary.getDecodeTable(), compressed.size() * 8 - finalJump, -1, decompressedFilePath);
+		} finally {
+			compressed.close();
+		}
+	}
+
+	/**
+	 * Reads the header of the tree format and builds the decode table straight from it, without
+	 * the tree. The dfs holds the edges of the tree in depth first order, 0 to a left child and
+	 * 1 to a right one, so the node an edge leads to is a leaf when the next edge is a 1 or the
+	 * dfs ends. The symbols of the leaves follow the dfs, in the same order.
+	 * header: <symbol length> <initial jump> <final jump> <dfs size> <dfs> <symbols in dfs order>
+	 */
+	DecodeTable readTreeHeader(BitSequence compressed) throws Exception {
+		return readTreeHeader(new BitReader(compressed, 0));
+	}
+
+	/**
+	 * Same as above, from a reader at the start of the file. The dfs is read ahead, so the
+	 * reader is left after the symbols, at the initial jump.
+	 */
+	private DecodeTable readTreeHeader(BitReader header) throws Exception {
+		symbolLength = (int) header.readBits(5);
+		initialJump = (int) header.readBits(3);
+		finalJump = (int) header.readBits(3);
+		dfsLength = (int) header.readBits(DFS_SIZE_BIT_LENGTH);
+		long[] dfs = new long[(dfsLength + 63) / 64];
+		for (int i = 0; i < dfs.length; i++) {
+			int bits = Math.min(64, dfsLength - i * 64);
+			dfs[i] = header.readBits(bits) << (64 - bits);
+		}
+
+		// a tree of n leaves has 2(n - 1) edges
+		int leaves = dfsLength / 2 + 1;
+		long[] codes = new long[leaves];
+		int[] lengths = new int[leaves];
+		long[] symbols = new long[leaves];
+		int[] widths = new int[leaves];
+		// the nodes whose right edge is still to come
+		long[] pendingCodes = new long[dfsLength + 1];
+		int[] pendingLengths = new int[dfsLength + 1];
+		int pending = 0;
+		long code = 0;
+		int length = 0;
+		nSymbol = 0;
+		for (int i = 0; i < dfsLength; i++) {
+			if (dfs[i >>> 6] << (i & 63) >= 0) {
+				pendingCodes[pending] = code;
+				pendingLengths[pending++] = length;
+				code <<= 1;
+				length++;
+			} else {
+				if (pending == 0 || nSymbol == leaves - 1)
+					throw new Exception("The tree in the header is malformed.");
+				addLeaf(codes, lengths, symbols, widths, code, length, header);
+				code = (pendingCodes[--pending] << 1) | 1;
+				length = pendingLengths[pending] + 1;
+			}
+		}
+		addLeaf(codes, lengths, symbols, widths, code, length, header);
+		return new DecodeTable(codes, lengths, symbols, widths);
+	}
+
+	private void addLeaf(long[] codes, int[] lengths, long[] symbols, int[] widths, long code, int length, BitReader leafSymbols) {
+		codes[nSymbol] = code;
+		lengths[nSymbol] = length;
+		symbols[nSymbol] = leafSymbols.readBits(symbolLength);
+		widths[nSymbol++] = symbolLength;
+	}
+	
+	/**
+	 * Copies the file through a HuffmanInputStream, one frame at a time, or an AdaptiveInputStream.
+	 */
+	private void decompressStream(String compressedFilePath, String decompressedFilePath, Format format) throws IOException {
+		FileInputStream fis = new FileInputStream(compressedFilePath);
+		InputStream his = format == Format.ADAPTIVE ? new AdaptiveInputStream(fis) : new HuffmanInputStream(fis);
+		FileOutputStream fos = new FileOutputStream(decompressedFilePath);
+		try {
+			byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+			int read;
+			while ((read = his.read(buffer)) != -1)
+				fos.write(buffer, 0, read);
+		} finally {
+			his.close();
+			fos.close();
+		}
+	}
+
+	/**
+	 * Copies the original bytes after the header of the stored format, channel to channel.
+	 */
+	private static void copyStored(String compressedFilePath, String decompressedFilePath) throws IOException {
+		FileChannel input = FileChannel.open(Paths.get(compressedFilePath), StandardOpenOption.READ);
+		FileChannel output = FileChannel.open(Paths.get(decompressedFilePath), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			long size = input.size();
+			for (long position = STORED_HEADER_SIZE; position < size; )
+				position += input.transferTo(position, size - position, output);
+		} finally {
+			input.close();
+			output.close();
+		}
+	}
+
+	/**
+	 * Decodes straight from the mapped windows of the file to the output file, through a
+	 * direct buffer.
+	 * 
+	 * @param in           - a reader at the first code
+	 * @param end          - end of the codes (exclusive)
+	 * @param originalSize - size the output is cut to, or -1 to keep every decoded symbol
+	 */
+	private void decompress(BitReader in, DecodeTable table, long end, long originalSize, String decompressedFilePath) throws IOException {
+		FileOutputStream fos = new FileOutputStream(decompressedFilePath);
+		BitWriter output = new BitWriter(fos.getChannel(), writeBuffer);
+		table.decode(in, end, output);
+		output.flush();
+		truncate(fos.getChannel(), originalSize);
+		fos.close();
+	}
+
+	/**
+	 * Reads the jump table of the interleaved format and decodes its streams side by side.
+	 * jump table: <byte size of each stream but the last>
+	 * 
+	 * @param jumpTable    - position of the jump table, after the header
+	 * @param originalSize - size of the original file, which gives the number of symbols
+	 */
+	private void decompressInterleaved(FileChannel compressed, DecodeTable table, long jumpTable, long originalSize, String decompressedFilePath) throws Exception {
+		long bits = compressed.size() * 8;
+		// every code takes at least a bit
+		long count = (originalSize * 8 + symbolLength - 1) / symbolLength;
+		if (originalSize < 0 || count > bits)
+			throw new Exception("The header is malformed.");
+		BitReader jumps = new BitReader(compressed, jumpTable);
+		BitReader[] streams = new BitReader[Format.INTERLEAVED_STREAMS];
+		long start = jumpTable + Format.JUMP_TABLE_SIZE * 8;
+		for (int stream = 0; stream < streams.length; stream++) {
+			if (start < 0 || start > bits)
+				throw new Exception("The jump table is malformed.");
+			streams[stream] = new BitReader(compressed, start);
+			if (stream < streams.length - 1)
+				start += jumps.readBits(64) * 8;
+		}
+		FileOutputStream fos = new FileOutputStream(decompressedFilePath);
+		BitWriter output = new BitWriter(fos.getChannel(), writeBuffer);
+		table.decode(streams, count, output);
+		output.flush();
+		truncate(fos.getChannel(), originalSize);
+		fos.close();
+	}
+
+	/**
+	 * Same as above, with the table picked by the previous symbol.
+	 */
+	private void decompress(BitReader in, ContextCode context, long end, long originalSize, String decompressedFilePath) throws Exception {
+		FileOutputStream fos = new FileOutputStream(decompressedFilePath);
+		BitWriter output = new BitWriter(fos.getChannel(), writeBuffer);
+		context.decode(in, end, output);
+		output.flush();
+		truncate(fos.getChannel(), originalSize);
+		fos.close();
+	}
+
+	/**
+	 * Drops the padding of the last symbol, which is decoded whole, for the formats that keep
+	 * the size of the original file.
+	 */
+	private static void truncate(FileChannel output, long originalSize) throws IOException {
+		if (originalSize < 0)
+			return;
+		if (output.size() < originalSize)
+			throw new IOException("Unexpected end of the compressed file.");
+		output.truncate(originalSize);
+	}
+
+	/**
+	 * Reads the fields the canonical formats start with.
+	 * header: 0 <format> <symbol length> <final jump>
+	 *
+	 * @return a reader after them, at the code lengths, tokens or context tables
+	 */
+	private BitReader readCanonicalHeader(FileChannel compressed) throws IOException {
+		BitReader header = new BitReader(compressed, SHORT_BIT_LENGTH);
+		symbolLength = (int) header.readBits(5);
+		finalJump = (int) header.readBits(3);
+		return header;
+	}
+
+}
@@ -0,0 +1,260 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A canonical code of bytes trained on a sample corpus and shared by many small messages.
+ * Messages only name the dictionary by its id, so they have a 4 byte header instead of a
+ * code table, and nothing is built per message. Every byte value has a code, even the ones
+ * the corpus doesn't have, so any message can be coded.
+ *
+ * A dictionary is never changed after it is built; train a new one with a new id instead.
+ * file: <magic> <version> <id> <code lengths>
+ * message: 0 <format> <final jump> <dictionary id> <codes>, or a stored message when that is smaller
+ */
+public class HuffmanDictionary {
+	public static final int SYMBOL_LENGTH = 8;
+	public static final int MAX_ID = (1 << 13) - 1;
+	public static final int HEADER_SIZE = 4;
+	private static final int MAGIC = 0x48554644;
+	private static final int VERSION = 1;
+	private static final int ID_BITS = 13;
+	private static final int FINAL_JUMP_BITS = 3;
+	private static final int STORED_HEADER_SIZE = 2;
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+	private static final long MAP_WINDOW_SIZE = 1 << 26;
+
+	private final int id;
+	private final CanonicalCode code;
+	private final EncodeTable encodeTable;
+	private final DecodeTable decodeTable;
+	private final byte[] lengths = new byte[1 << SYMBOL_LENGTH];
+
+	/**
+	 * @param id   - number the messages name the dictionary by (0 to MAX_ID)
+	 * @param code - code of every byte value
+	 * @throws Exception if the id is out of range or a byte value has no code
+	 */
+	public HuffmanDictionary(int id, CanonicalCode code) throws Exception {
+		if (id < 0 || id > MAX_ID)
+			throw new IllegalArgumentException("Dictionary ids must be between 0 and " + MAX_ID + ".");
+		if (code.getSymbolLength() != SYMBOL_LENGTH)
+			throw new Exception("Dictionaries code symbols of " + SYMBOL_LENGTH + " bits.");
+		this.id = id;
+		this.code = code;
+		this.encodeTable = code.getEncodeTable();
+		this.decodeTable = code.getDecodeTable();
+		encodeTable.copyTo(new int[lengths.length], lengths, 0);
+		for (byte length : lengths)
+			if (length == 0)
+				throw new Exception("Every byte value must have a code.");
+	}
+
+	/**
+	 * Counts the bytes of the sample files. Each count is raised by one, so byte values the
+	 * sample doesn't have still get a code.
+	 *
+	 * @param id          - number the messages name the dictionary by (0 to MAX_ID)
+	 * @param samplePaths - files like the messages the dictionary is for
+	 */
+	public static HuffmanDictionary train(int id, List<String> samplePaths) throws Exception {
+		Histogram histogram = new Histogram(SYMBOL_LENGTH);
+		for (String samplePath : samplePaths) {
+			FileChannel sample = FileChannel.open(Paths.get(samplePath), StandardOpenOption.READ);
+			try {
+				long size = sample.size();
+				for (long position = 0; position < size; position += MAP_WINDOW_SIZE)
+					histogram.update(sample.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW_SIZE, size - position)));
+			} finally {
+				sample.close();
+			}
+		}
+		long[] counts = histogram.getCounts().clone();
+		for (int symbol = 0; symbol < counts.length; symbol++)
+			counts[symbol]++;
+		return new HuffmanDictionary(id, CanonicalCode.fromCounts(counts, SYMBOL_LENGTH, CanonicalCode.DEFAULT_CODE_LENGTH_LIMIT));
+	}
+
+	/**
+	 * Trains on every regular file under a directory, its subdirectories included.
+	 *
+	 * @param id        - number the messages name the dictionary by (0 to MAX_ID)
+	 * @param directory - directory with the sample files
+	 */
+	public static HuffmanDictionary trainDirectory(int id, String directory) throws Exception {
+		List<String> samplePaths;
+		try (Stream<Path> entries = Files.walk(Paths.get(directory))) {
+			samplePaths = entries.filter(Files::isRegularFile).map(Path::toString).sorted().collect(Collectors.toList());
+		}
+		return train(id, samplePaths);
+	}
+
+	/**
+	 * Reads a dictionary written by write.
+	 *
+	 * @param dictionaryPath - the dictionary file
+	 * @throws IOException if the file isn't a dictionary of this version
+	 */
+	public static HuffmanDictionary read(String dictionaryPath) throws Exception {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dictionaryPath)));
+		try {
+			if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+				throw new IOException("Not a dictionary file: " + dictionaryPath);
+			int id = in.readUnsignedShort();
+			ByteArrayOutputStream lengths = new ByteArrayOutputStream();
+			byte[] chunk = new byte[1 << 10];
+			for (int n; (n = in.read(chunk)) > 0; )
+				lengths.write(chunk, 0, n);
+			BitSequence header = new BitSequence();
+			header.wrap(lengths.toByteArray());
+			return new HuffmanDictionary(id, CanonicalCode.readHeader(header, 0, SYMBOL_LENGTH));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param dictionaryPath - the dictionary file to write
+	 */
+	public void write(String dictionaryPath) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dictionaryPath)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeShort(id);
+			BitSequence lengths = new BitSequence();
+			code.writeHeader(lengths);
+			out.write(lengths.getByteArray());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * usage: HuffmanDictionary <id> <directory of sample files> <dictionary file to write>
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.err.println("usage: HuffmanDictionary <id> <sample directory> <dictionary file>");
+			System.exit(1);
+		}
+		try {
+			HuffmanDictionary dictionary = trainDirectory(Integer.parseInt(args[0]), args[1]);
+			dictionary.write(args[2]);
+			System.out.println("[DICTIONARY] Dictionary " + dictionary.getId() + " written to " + args[2]);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Codes a message, or stores it if the codes would take more room than its bytes.
+	 *
+	 * @param message - the bytes to compress
+	 * @return the compressed message
+	 */
+	public byte[] compress(byte[] message) throws IOException {
+		long bits = 0;
+		for (byte b : message)
+			bits += lengths[b & 0xFF];
+		if (HEADER_SIZE + (bits + 7) / 8 >= STORED_HEADER_SIZE + message.length) {
+			byte[] stored = new byte[STORED_HEADER_SIZE + message.length];
+			stored[0] = Format.MARKER;
+			stored[1] = (byte) Format.STORED.getId();
+			System.arraycopy(message, 0, stored, STORED_HEADER_SIZE, message.length);
+			return stored;
+		}
+
+		byte[] compressed = new byte[(int) (HEADER_SIZE + (bits + 7) / 8)];
+		BitWriter output = new BitWriter(ByteBuffer.wrap(compressed));
+		output.write(getHeader());
+		encodeTable.code(ByteBuffer.wrap(message), output::write);
+		int finalJump = output.flush();
+		compressed[2] |= finalJump << (8 - FINAL_JUMP_BITS);
+		return compressed;
+	}
+
+	/**
+	 * @param compressed - a message compressed with this dictionary, or stored
+	 * @return the original bytes
+	 * @throws Exception if the message was compressed with another dictionary
+	 */
+	public byte[] decompress(byte[] compressed) throws Exception {
+		Format format = Format.of(compressed);
+		if (format == Format.STORED)
+			return Arrays.copyOfRange(compressed, STORED_HEADER_SIZE, compressed.length);
+		BitSequence message = new BitSequence();
+		message.wrap(compressed);
+		int finalJump = checkHeader(message, format);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressed.length * 2);
+		BitWriter output = new BitWriter(Channels.newChannel(bytes), Math.min(WRITE_BUFFER_SIZE, compressed.length * 8));
+		decodeTable.decode(message, HEADER_SIZE * 8, message.getNumberOfBits() - finalJump, output);
+		output.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return the header of a message, with a final jump of 0
+	 */
+	BitSequence getHeader() {
+		BitSequence header = new BitSequence();
+		header.appendBits(Format.MARKER, 8);
+		header.appendBits(Format.DICTIONARY.getId(), 8);
+		// final jump, patched in after coding
+		header.appendBits(0, FINAL_JUMP_BITS);
+		header.appendBits(id, ID_BITS);
+		return header;
+	}
+
+	/**
+	 * @return the final jump of the message
+	 * @throws Exception if the message isn't in the dictionary format or names another dictionary
+	 */
+	int checkHeader(BitSequence message, Format format) throws Exception {
+		if (format != Format.DICTIONARY || message.getNumberOfBits() < HEADER_SIZE * 8)
+			throw new Exception("Not a message compressed with a dictionary.");
+		int messageId = readId(message);
+		if (messageId != id)
+			throw new Exception("The message was compressed with dictionary " + messageId + ", not " + id + ".");
+		return (int) message.getBits(16, FINAL_JUMP_BITS);
+	}
+
+	/**
+	 * @param message - a message in the dictionary format
+	 * @return the id of the dictionary it was compressed with
+	 */
+	public static int readId(BitSequence message) {
+		return (int) message.getBits(16 + FINAL_JUMP_BITS, ID_BITS);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public EncodeTable getEncodeTable() {
+		return encodeTable;
+	}
+
+	public DecodeTable getDecodeTable() {
+		return decodeTable;
+	}
+}
@@ -0,0 +1,638 @@
+package huffman;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import huffman.tree.HuffmanNode;
+import huffman.tree.Leaf;
+import huffman.tree.Node;
+
+/**
+ * Compresses files. All the state of a compression lives in the instance, together with
+ * scratch buffers that are reused from one file to the next, so an encoder must only be
+ * used by one thread at a time. Borrow them from a HuffmanPool to compress in parallel.
+ * What was chosen and where the time went is logged at FINE.
+ */
+public class HuffmanEncoder {
+	public static final int AUTO_SYMBOL_LENGTH = 0;
+
+	private static final int MAP_WINDOW_SIZE = 1 << 30;
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+	private static final int FINAL_JUMP_BYTE = 1;
+	private static final int FINAL_JUMP_SHIFT = 5;
+	private static final int CANONICAL_FINAL_JUMP_BYTE = 2;
+	private static final int BLOCK_SIZE = 1 << 20;
+	private static final int STORED_HEADER_SIZE = 2;
+	private static final Logger LOGGER = Logger.getLogger(HuffmanEncoder.class.getName());
+	static final int ORIGINAL_SIZE_BIT_LENGTH = 64;
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+	private final Histogram[] histograms = new Histogram[Histogram.MAX_SYMBOL_LENGTH + 1];
+	// write buffers of the streams of the interleaved format after the first
+	private final ByteBuffer[] streamBuffers = new ByteBuffer[Format.INTERLEAVED_STREAMS];
+	private int maxCodeLength = CanonicalCode.DEFAULT_CODE_LENGTH_LIMIT;
+
+	/**
+	 * Sets the longest code the canonical formats may use, so decoders can rely on a fixed
+	 * table width. The tree format isn't limited.
+	 *
+	 * @param maxCodeLength - 1 to CanonicalCode.MAX_CODE_LENGTH
+	 */
+	public void setMaxCodeLength(int maxCodeLength) {
+		if (maxCodeLength < 1 || maxCodeLength > CanonicalCode.MAX_CODE_LENGTH)
+			throw new IllegalArgumentException("Code length limit must be between 1 and " + CanonicalCode.MAX_CODE_LENGTH + ".");
+		this.maxCodeLength = maxCodeLength;
+	}
+
+	public int getMaxCodeLength() {
+		return maxCodeLength;
+	}
+
+	/**
+	 * Puts the encoder back to how a new one starts, for the pool: the default code length
+	 * limit, and no histograms, which can be as large as the alphabet. The write buffers are kept.
+	 */
+	void reset() {
+		maxCodeLength = CanonicalCode.DEFAULT_CODE_LENGTH_LIMIT;
+		Arrays.fill(histograms, null);
+	}
+
+	/**
+	 * To compress a file when the probabilities are not known a priori.
+	 * 
+	 * @param filePath           - file to compress
+	 * @param symmbolLength      - bit length, 1 to Histogram.MAX_SYMBOL_LENGTH, or AUTO_SYMBOL_LENGTH to pick
+	 *                             it from a sample of the file
+	 * @param compressedFilePath - file to write compressed
+	 * @param format             - TREE, CANONICAL, BLOCK, STREAM, ADAPTIVE, TOKEN, which splits the
+	 *                             file in the words of its start instead of symbols of symbolLength bits,
+	 *                             CONTEXT, which codes each symbol by the one before it (symbolLength up to 10),
+	 *                             INTERLEAVED, which deals the symbols to four streams that decode side by side,
+	 *                             or STORED. Files that wouldn't get smaller are stored whatever the format,
+	 *                             except for BLOCK and STREAM, which store such blocks one by one
+	 * @param pool               - where both passes run in chunks, or null to run them in this thread
+	 */
+	public void compress(String filePath, int symbolLength, String compressedFilePath, Format format, ForkJoinPool pool) throws Exception {
+		if (format == Format.DICTIONARY)
+			throw new IllegalArgumentException("The dictionary format needs a dictionary.");
+		if (symbolLength == AUTO_SYMBOL_LENGTH && format != Format.TOKEN) {
+			symbolLength = SymbolLengthEstimator.choose(filePath, format);
+			LOGGER.fine("[COMPRESSOR] Symbol length is " + symbolLength + " bits");
+		}
+		if (format == Format.STORED) {
+			store(filePath, compressedFilePath);
+			return;
+		}
+		if (format != Format.TOKEN && (symbolLength < 1 || symbolLength > Histogram.MAX_SYMBOL_LENGTH))
+			throw new IllegalArgumentException("Symbol length must be between 1 and " + Histogram.MAX_SYMBOL_LENGTH + ".");
+		// the block and stream formats store their incompressible blocks one by one
+		boolean whole = format != Format.BLOCK && format != Format.STREAM;
+		if (whole && !SymbolLengthEstimator.isCompressible(filePath, format == Format.TOKEN ? 8 : symbolLength, format)) {
+			LOGGER.fine("[COMPRESSOR] The file doesn't compress, it is stored");
+			store(filePath, compressedFilePath);
+			return;
+		}
+		code(filePath, symbolLength, compressedFilePath, format, pool);
+		if (whole)
+			storeIfLarger(filePath, compressedFilePath);
+	}
+
+	private void code(String filePath, int symbolLength, String compressedFilePath, Format format, ForkJoinPool pool) throws Exception {
+		if (format == Format.TOKEN) {
+			code(filePath, TokenModel.words(filePath), compressedFilePath);
+			return;
+		}
+		if (format == Format.CONTEXT) {
+			compressContext(filePath, symbolLength, compressedFilePath);
+			return;
+		}
+		if (format == Format.STREAM || format == Format.ADAPTIVE) {
+			compressStream(filePath, symbolLength, compressedFilePath, format);
+			return;
+		}
+		FileChannel input = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		long total = System.currentTimeMillis();
+		
+		long probabilities = System.currentTimeMillis();
+		Histogram histogram = pool == null ? getFileHistogram(input, new FixedLengthModel(symbolLength)) : ParallelCompressor.getFileHistogram(input, symbolLength, pool);
+		probabilities = System.currentTimeMillis() - probabilities;
+		
+		long huffman = System.currentTimeMillis();
+		HuffmanNode tree = null;
+		CanonicalCode canonical = null;
+		EncodeTable table;
+		if (format != Format.TREE) {
+			canonical = CanonicalCode.fromCounts(histogram.getCounts(), symbolLength, maxCodeLength);
+			table = canonical.getEncodeTable();
+		} else {
+			tree = Utils.createHuffmanTree(histogram.getCounts(), symbolLength);
+			table = EncodeTable.fromTree(tree, symbolLength);
+		}
+		huffman = System.currentTimeMillis() - huffman;
+		
+		long headerT = System.currentTimeMillis();
+		BitSequence header;
+		if (canonical == null)
+			header = generateHeader(tree, symbolLength);
+		else if (format == Format.BLOCK)
+			header = generateHeader(canonical, format);
+		else
+			header = generateHeader(canonical, format, input.size());
+		headerT = System.currentTimeMillis() - headerT;
+		logHeaderSize(header);
+		
+		long code = System.currentTimeMillis();
+		FileOutputStream fos = new FileOutputStream(compressedFilePath);
+		FileChannel channel = fos.getChannel();
+		BitWriter output = new BitWriter(channel, writeBuffer);
+		output.write(header);
+		output.flush();
+		int finalJump = 0;
+		if (format == Format.BLOCK) {
+			int blockSize = BLOCK_SIZE / symbolLength * symbolLength;
+			ParallelCompressor.codeBlocks(input, symbolLength, table, output, pool, blockSize).write(output);
+		} else if (format == Format.INTERLEAVED)
+			codeInterleaved(input, symbolLength, table, output, channel, compressedFilePath);
+		else if (pool == null)
+			finalJump = codeFile(input, new FixedLengthModel(symbolLength), table, output);
+		else
+			finalJump = ParallelCompressor.codeFile(input, symbolLength, table, output, pool);
+		input.close();
+		code = System.currentTimeMillis() - code;
+		
+		long write = System.currentTimeMillis();
+		if (canonical == null)
+			writeFinalJump(channel, header, finalJump, FINAL_JUMP_BYTE, FINAL_JUMP_SHIFT);
+		else if (format == Format.CANONICAL)
+			writeFinalJump(channel, header, finalJump, CANONICAL_FINAL_JUMP_BYTE, 0);
+		fos.close();
+		write = System.currentTimeMillis() - write;
+		
+		total = System.currentTimeMillis() - total;
+		if (LOGGER.isLoggable(Level.FINE)) {
+			LOGGER.fine(String.format("[COMPRESSOR] Probabilities: %.2f%s", ((probabilities/(total*1.0))*100), "%"));
+			LOGGER.fine(String.format("[COMPRESSOR] Huffman tree: %.2f%s", ((huffman/(total*1.0))*100), "%"));
+			LOGGER.fine(String.format("[COMPRESSOR] Code: %.2f%s", ((code/(total*1.0))*100), "%"));
+			LOGGER.fine(String.format("[COMPRESSOR] Header: %.2f%s", ((headerT/(total*1.0))*100), "%"));
+			LOGGER.fine(String.format("[COMPRESSOR] Write: %.2f%s", ((write/(total*1.0))*100), "%"));
+		}
+	}
+
+	private static void logHeaderSize(BitSequence header) {
+		LOGGER.fine(() -> "[COMPRESSOR] Header size is " + (header.getNumberOfBits() + 7) / 8 + " bytes");
+	}
+
+	/**
+	 * To compress a file split by a symbol model. Fixed length symbols are written in the
+	 * canonical format, tokens in the token format, with the vocabulary in the header.
+	 * 
+	 * @param filePath           - file to compress
+	 * @param model              - how the file is split into symbols
+	 * @param compressedFilePath - file to write compressed
+	 */
+	public void compress(String filePath, SymbolModel model, String compressedFilePath) throws Exception {
+		if (model instanceof FixedLengthModel) {
+			compress(filePath, model.getSymbolLength(), compressedFilePath, Format.CANONICAL, null);
+			return;
+		}
+		code(filePath, (TokenModel) model, compressedFilePath);
+		storeIfLarger(filePath, compressedFilePath);
+	}
+
+	private void code(String filePath, TokenModel tokens, String compressedFilePath) throws Exception {
+		FileChannel input = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		Histogram histogram = getFileHistogram(input, tokens);
+		CanonicalCode canonical = CanonicalCode.fromCounts(histogram.getCounts(), tokens.getSymbolLength(), maxCodeLength);
+		BitSequence header = generateHeader(tokens, canonical);
+		logHeaderSize(header);
+
+		FileOutputStream fos = new FileOutputStream(compressedFilePath);
+		FileChannel channel = fos.getChannel();
+		BitWriter output = new BitWriter(channel, writeBuffer);
+		output.write(header);
+		output.flush();
+		int finalJump = codeFile(input, tokens, canonical.getEncodeTable(), output);
+		input.close();
+		writeFinalJump(channel, header, finalJump, CANONICAL_FINAL_JUMP_BYTE, 0);
+		fos.close();
+	}
+
+	/**
+	 * To compress a file when the probabilities are known a priori. Symbols of more than one
+	 * byte in the probabilities are coded as tokens. The code of the probabilities is compiled
+	 * once and kept in the shared PrioriModelRegistry.
+	 * 
+	 * @param filePath           - file to compress
+	 * @param probabilitiesPath  - file containing the probabilities
+	 * @param compressedFilePath - file to write compressed
+	 */
+	public void compress(String filePath, String probabilitiesPath, String compressedFilePath) throws Exception {
+		FileChannel input = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		PrioriModel model = PrioriModelRegistry.shared().get(probabilitiesPath);
+		FileOutputStream fos = new FileOutputStream(compressedFilePath);
+		codeFile(input, model.getTokenModel(), model.getEncodeTable(), new BitWriter(fos.getChannel(), writeBuffer));
+		input.close();
+		fos.close();
+	}
+	
+	/**
+	 * To compress a file with a trained dictionary. The header only names the dictionary, the
+	 * decoder has to be given the same one.
+	 * 
+	 * @param filePath           - file to compress
+	 * @param dictionary         - code table shared by many files
+	 * @param compressedFilePath - file to write compressed
+	 */
+	public void compress(String filePath, HuffmanDictionary dictionary, String compressedFilePath) throws Exception {
+		FileChannel input = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		BitSequence header = dictionary.getHeader();
+		FileOutputStream fos = new FileOutputStream(compressedFilePath);
+		FileChannel channel = fos.getChannel();
+		BitWriter output = new BitWriter(channel, writeBuffer);
+		output.write(header);
+		int finalJump = codeFile(input, new FixedLengthModel(HuffmanDictionary.SYMBOL_LENGTH), dictionary.getEncodeTable(), output);
+		input.close();
+		writeFinalJump(channel, header, finalJump, CANONICAL_FINAL_JUMP_BYTE, FINAL_JUMP_SHIFT);
+		fos.close();
+		storeIfLarger(filePath, compressedFilePath);
+	}
+	
+	/**
+	 * Codes each symbol with the table of the symbol before it. Coding depends on the previous
+	 * symbol, so both passes run in this thread.
+	 */
+	private void compressContext(String filePath, int symbolLength, String compressedFilePath) throws Exception {
+		FileChannel input = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		ContextHistogram histogram = new ContextHistogram(symbolLength);
+		long window = window(symbolLength);
+		long size = input.size();
+		for (long position = 0; position < size; position += window)
+			histogram.update(input.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position)));
+		histogram.finish();
+		ContextCode code = ContextCode.fromCounts(histogram, maxCodeLength);
+		BitSequence header = generateHeader(code, size);
+		logHeaderSize(header);
+		LOGGER.fine(() -> "[COMPRESSOR] " + code.getTableCount() + " context tables");
+
+		FileOutputStream fos = new FileOutputStream(compressedFilePath);
+		FileChannel channel = fos.getChannel();
+		BitWriter output = new BitWriter(channel, writeBuffer);
+		output.write(header);
+		output.flush();
+		int context = 0;
+		for (long position = 0; position < size; position += window)
+			context = code.code(input.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position)), context, output::write);
+		int finalJump = output.flush();
+		input.close();
+		writeFinalJump(channel, header, finalJump, CANONICAL_FINAL_JUMP_BYTE, 0);
+		fos.close();
+	}
+
+	/**
+	 * Copies the file after the header of the stored format, channel to channel.
+	 */
+	private static void store(String filePath, String compressedFilePath) throws IOException {
+		FileChannel input = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		FileChannel output = FileChannel.open(Paths.get(compressedFilePath), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			// header: 0 <format>
+			ByteBuffer header = ByteBuffer.wrap(new byte[] { Format.MARKER, (byte) Format.STORED.getId() });
+			while (header.hasRemaining())
+				output.write(header);
+			long size = input.size();
+			for (long position = 0; position < size; )
+				position += input.transferTo(position, size - position, output);
+		} finally {
+			input.close();
+			output.close();
+		}
+	}
+
+	/**
+	 * Stores the file instead when coding it made it bigger than storing it, which the
+	 * estimate that decides whether to code it can miss.
+	 */
+	private static void storeIfLarger(String filePath, String compressedFilePath) throws IOException {
+		if (Files.size(Paths.get(compressedFilePath)) > Files.size(Paths.get(filePath)) + STORED_HEADER_SIZE) {
+			LOGGER.fine("[COMPRESSOR] The coded file is bigger than the file, it is stored");
+			store(filePath, compressedFilePath);
+		}
+	}
+
+	/**
+	 * Copies the file through a HuffmanOutputStream, one frame per block, or an AdaptiveOutputStream.
+	 */
+	private void compressStream(String filePath, int symbolLength, String compressedFilePath, Format format) throws IOException {
+		FileInputStream fis = new FileInputStream(filePath);
+		FileOutputStream fos = new FileOutputStream(compressedFilePath);
+		OutputStream hos = format == Format.ADAPTIVE ? new AdaptiveOutputStream(fos, symbolLength) : new HuffmanOutputStream(fos, symbolLength);
+		try {
+			byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+			int read;
+			while ((read = fis.read(buffer)) != -1)
+				hos.write(buffer, 0, read);
+		} finally {
+			fis.close();
+			hos.close();
+		}
+	}
+
+	/**
+	 * Counts the symbols of the file. Probabilities are only worked out when the tree is built.
+	 * The file is mapped into memory a window at a time, the same windows codeFile uses.
+	 * 
+	 * @param bits 		   - file that we want to compress
+	 * @param model        - how the file is split into symbols
+	 * @return the number of appearances of each symbol
+	 * @throws IOException 
+	 */
+	private Histogram getFileHistogram(FileChannel bits, SymbolModel model) throws IOException {
+		int symbolLength = model.getSymbolLength();
+		if (histograms[symbolLength] == null)
+			histograms[symbolLength] = new Histogram(symbolLength);
+		Histogram histogram = histograms[symbolLength];
+		histogram.reset();
+		long window = window(symbolLength);
+		long size = bits.size();
+		for (long position = 0; position < size; position += window)
+			model.count(bits.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position)), histogram);
+		histogram.finish();
+		return histogram;
+	}
+
+	/**
+	 * Changes the occurrence of each symbol with the respective code, streaming the codes to the output.
+	 * The file is mapped into memory a window at a time; windows hold a whole number of symbols.
+	 * 
+	 * @param bits 		   - file that we want to compress 
+	 * @param model        - how the file is split into symbols
+	 * @param table 	   - code of each symbol
+	 * @param output       - where the coded file is written
+	 * @return the number of padding bits at the end of the coded file
+	 * @throws IOException 
+	 */
+	int codeFile(FileChannel bits, SymbolModel model, EncodeTable table, BitWriter output) throws IOException {
+		long window = window(model.getSymbolLength());
+		long size = bits.size();
+		for (long position = 0; position < size; position += window)
+			model.code(bits.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position)), table, output::write);
+		return output.flush();
+	}
+
+	/**
+	 * Codes the streams of the interleaved format in a single pass over the file, dealing the
+	 * symbols to them round-robin. The first stream goes straight to the file, after a jump
+	 * table written as 0s; the others go to temporary files next to it, which are appended
+	 * once the pass is over. The jump table is then patched with the sizes of the streams.
+	 * 
+	 * @param bits               - file that we want to compress
+	 * @param symbolLength       - bit length of the symbols
+	 * @param table              - code of each symbol
+	 * @param output             - where the jump table and the streams are written, after the header
+	 * @param channel            - channel of the output, for the patch
+	 * @param compressedFilePath - the file being written, the temporary files go in its directory
+	 * @throws IOException
+	 */
+	private void codeInterleaved(FileChannel bits, int symbolLength, EncodeTable table, BitWriter output, FileChannel channel,
+			String compressedFilePath) throws IOException {
+		long jumpTablePosition = output.getBitCount() / 8;
+		output.write(ByteBuffer.wrap(new byte[Format.JUMP_TABLE_SIZE]));
+		long start = jumpTablePosition + Format.JUMP_TABLE_SIZE;
+
+		Path directory = Paths.get(compressedFilePath).toAbsolutePath().getParent();
+		BitWriter[] streams = new BitWriter[Format.INTERLEAVED_STREAMS];
+		FileChannel[] spills = new FileChannel[Format.INTERLEAVED_STREAMS];
+		streams[0] = output;
+		try {
+			for (int stream = 1; stream < streams.length; stream++) {
+				spills[stream] = FileChannel.open(Files.createTempFile(directory, "huffman", ".stream"), StandardOpenOption.READ,
+						StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+				if (streamBuffers[stream] == null)
+					streamBuffers[stream] = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+				streams[stream] = new BitWriter(spills[stream], streamBuffers[stream]);
+			}
+			long size = bits.size();
+			long window = window(symbolLength);
+			int stream = 0;
+			for (long position = 0; position < size; position += window)
+				stream = table.code(bits.map(FileChannel.MapMode.READ_ONLY, position, Math.min(window, size - position)), stream, streams);
+
+			ByteBuffer jumps = ByteBuffer.allocate(Format.JUMP_TABLE_SIZE);
+			output.flush();
+			jumps.putLong(output.getBitCount() / 8 - start);
+			for (int i = 1; i < streams.length; i++) {
+				streams[i].flush();
+				long length = spills[i].size();
+				if (i < streams.length - 1)
+					jumps.putLong(length);
+				for (long position = 0; position < length; )
+					position += spills[i].transferTo(position, length - position, channel);
+			}
+			jumps.flip();
+			while (jumps.hasRemaining())
+				channel.write(jumps, jumpTablePosition + jumps.position());
+		} finally {
+			for (FileChannel spill : spills)
+				if (spill != null)
+					spill.close();
+		}
+	}
+
+	// a whole number of fixed length symbols; tokens are split at the same places by both passes
+	private static long window(int symbolLength) {
+		return MAP_WINDOW_SIZE / symbolLength * symbolLength;
+	}
+
+	/**
+	 * The final jump is only known once the whole file is coded, so it is patched into the
+	 * already written header with a positional write.
+	 * 
+	 * @param channel   - channel the header was written to
+	 * @param header    - the header, written with a final jump of 0
+	 * @param finalJump - number of padding bits at the end of the coded file
+	 * @param byteIndex - header byte that holds the final jump
+	 * @param shift     - position of the final jump in that byte
+	 * @throws IOException
+	 */
+	private static void writeFinalJump(FileChannel channel, BitSequence header, int finalJump, int byteIndex, int shift) throws IOException {
+		int headerByte = (int) header.getBits(byteIndex * 8, 8) | (finalJump << shift);
+		ByteBuffer patch = ByteBuffer.wrap(new byte[] { (byte) headerByte });
+		while (patch.hasRemaining())
+			channel.write(patch, byteIndex + patch.position());
+	}
+
+	/**
+	 * Generates the header to send with the coded file. It is only used when there aren't know probabilities a priori.
+	 * 
+	 * @param root - the root of the huffman tree
+	 * @return the header that contains information about the tree and each symbol
+	 */
+	static BitSequence generateHeader(HuffmanNode root, int symbolLength) {
+		// header: <dfs size> <dfs> <symbols in dfs order>
+		BitSequence dfs = new BitSequence();
+		Queue<BitSequence> symbols = new LinkedList<>();
+
+		// dfs stuff
+		Stack<HuffmanNode> stack = new Stack<>();
+		Map<Integer, Integer> explored = new HashMap<>();
+
+		short dfsSize = 0;
+
+		// <hashcode, 0: not explored 1: explored left 2: explored left and right>
+		explored.put(root.hashCode(), 0);
+		stack.add(root);
+
+		while (!stack.isEmpty()) {
+			HuffmanNode curr = stack.peek();
+			if (!(curr instanceof Leaf)) {
+				if (!explored.containsKey(curr.hashCode()))
+					explored.put(curr.hashCode(), 0);
+
+				if (explored.get(curr.hashCode()) == 0) {
+					stack.push(((Node) curr).getLeft());
+					explored.put(curr.hashCode(), 1);
+					dfs.addBit(false); // 0
+					dfsSize++;
+
+				} else if (explored.get(curr.hashCode()) == 1) {
+					stack.push(((Node) curr).getRight());
+					explored.put(curr.hashCode(), 2);
+					dfs.addBit(true); // 1
+					dfsSize++;
+
+				} else
+					stack.pop();
+
+			} else {
+				symbols.add(((Leaf) curr).getSymbol());
+				stack.pop();
+			}
+
+		} 	
+		
+		int headerSize = dfsSize + symbols.size() * symbols.peek().getNumberOfBits();
+		int off = 8 - (headerSize)%8;
+		if(off == 8)
+			off = 0;
+		
+		dfs = header(symbolLength, off, dfsSize).concat(dfs);
+		
+		while (!symbols.isEmpty()) 
+			dfs.concat(symbols.poll());
+		
+		return dfs;
+	}
+	
+	/**
+	 * Generates the header of the block format, which only holds the code lengths. The size
+	 * of each block is in the index at the end of the file.
+	 * 
+	 * @param canonical - the canonical code
+	 * @param format    - BLOCK
+	 * @return the header
+	 */
+	static BitSequence generateHeader(CanonicalCode canonical, Format format) {
+		// header: 0 <format> <symbol length> 000 <code lengths>
+		BitSequence header = startHeader(format, canonical.getSymbolLength());
+		canonical.writeHeader(header);
+		return header;
+	}
+	
+	/**
+	 * Generates the header of the canonical and interleaved formats. The last symbol is padded
+	 * with 0s when the symbol length doesn't divide the bits of the file, so the header also
+	 * holds the size of the file, for the decoder to drop the padding.
+	 * 
+	 * @param canonical    - the canonical code
+	 * @param format       - CANONICAL or INTERLEAVED
+	 * @param originalSize - number of bytes of the file
+	 * @return the header
+	 */
+	static BitSequence generateHeader(CanonicalCode canonical, Format format, long originalSize) {
+		// header: 0 <format> <symbol length> <final jump> <original size> <code lengths>
+		BitSequence header = startHeader(format, canonical.getSymbolLength());
+		header.appendBits(originalSize, ORIGINAL_SIZE_BIT_LENGTH);
+		canonical.writeHeader(header);
+		return header;
+	}
+	
+	/**
+	 * Generates the header of the token format.
+	 * 
+	 * @param model     - the vocabulary
+	 * @param canonical - the canonical code of the tokens
+	 * @return the header
+	 */
+	static BitSequence generateHeader(TokenModel model, CanonicalCode canonical) {
+		// header: 0 <format> <symbol length> <final jump> <tokens> <code lengths>
+		BitSequence header = startHeader(Format.TOKEN, canonical.getSymbolLength());
+		model.writeHeader(header);
+		canonical.writeHeader(header);
+		return header;
+	}
+	
+	/**
+	 * Generates the header of the order-1 format. It holds the size of the file, like the
+	 * canonical one, for the decoder to drop the padding of the last symbol.
+	 * 
+	 * @param code         - the tables of the contexts
+	 * @param originalSize - number of bytes of the file
+	 * @return the header
+	 */
+	static BitSequence generateHeader(ContextCode code, long originalSize) {
+		// header: 0 <format> <symbol length> <final jump> <original size> <context tables>
+		BitSequence header = startHeader(Format.CONTEXT, code.getSymbolLength());
+		header.appendBits(originalSize, ORIGINAL_SIZE_BIT_LENGTH);
+		code.writeHeader(header);
+		return header;
+	}
+	
+	/**
+	 * @return the fields the formats after the tree one start with: 0 <format> <symbol length> 000
+	 */
+	private static BitSequence startHeader(Format format, int symbolLength) {
+		BitSequence header = new BitSequence();
+		header.appendBits(Format.MARKER, 8);
+		header.appendBits(format.getId(), 8);
+		header.appendBits(symbolLength, 5);
+		// final jump, patched in after coding
+		header.appendBits(0, 3);
+		return header;
+	}
+	
+	private static BitSequence header(int symbolLength, int initialOff, int dfsSize) {
+		String header = "";
+		for (int i = 0; i < (5-Integer.toBinaryString(symbolLength).length()); i++)
+			header += "0";
+		header += Integer.toBinaryString(symbolLength);
+		
+		for (int i = 0; i < (3-Integer.toBinaryString(initialOff).length()); i++)
+			header += "0";
+		header += Integer.toBinaryString(initialOff);
+		
+		// final jump, patched in after coding
+		header += "000";
+		
+		
+		for (int i = 0; i < 13 - Integer.toBinaryString(dfsSize).length(); i++)
+			header += "0";
+
+		return new BitSequence(header + Integer.toBinaryString(dfsSize));
+	}
+}
@@ -0,0 +1,148 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Decompresses a stream written by HuffmanOutputStream, one frame at a time, so memory use
+ * is bounded by the size of a frame whatever the length of the stream.
+ */
+public class HuffmanInputStream extends FilterInputStream {
+	private final DataInputStream data;
+	private final int symbolLength;
+	private byte[] payload = new byte[0];
+	private byte[] block = new byte[0];
+	private int position;
+	private int count;
+	private boolean finished;
+
+	/**
+	 * Reads the header of the stream.
+	 *
+	 * @param in - the compressed stream
+	 * @throws IOException if the stream wasn't written by HuffmanOutputStream
+	 */
+	public HuffmanInputStream(InputStream in) throws IOException {
+		super(in);
+		this.data = new DataInputStream(in);
+		byte[] header = new byte[3];
+		data.readFully(header);
+		if (header[0] != Format.MARKER || header[1] != Format.STREAM.getId())
+			throw new IOException("Not a compressed stream.");
+		this.symbolLength = (header[2] & 0xFF) >>> 3;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == count && !nextFrame())
+			return -1;
+		return block[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (position == count && !nextFrame())
+			return -1;
+		int n = Math.min(len, count - position);
+		System.arraycopy(block, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && (position < count || nextFrame())) {
+			int step = (int) Math.min(n - skipped, count - position);
+			position += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return count - position;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("Mark not supported.");
+	}
+
+	/**
+	 * Reads and decodes the next frame.
+	 * frame: <original size> <payload size> <code lengths> <codes>
+	 * stored frame: <original size> <1> <original size> <original bytes>
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean nextFrame() throws IOException {
+		if (finished)
+			return false;
+		int size = data.readInt();
+		if (size == 0) {
+			finished = true;
+			return false;
+		}
+		int payloadSize = data.readInt();
+		if ((payloadSize & HuffmanOutputStream.STORED_FRAME) != 0) {
+			if (size < 0 || (payloadSize & ~HuffmanOutputStream.STORED_FRAME) != size)
+				throw new IOException("Corrupted frame.");
+			if (block.length < size)
+				block = new byte[size];
+			try {
+				data.readFully(block, 0, size);
+			} catch (EOFException e) {
+				throw new IOException("Truncated frame.", e);
+			}
+			position = 0;
+			count = size;
+			return true;
+		}
+		if (size < 0 || payloadSize < 0 || payloadSize > Integer.MAX_VALUE / 8)
+			throw new IOException("Corrupted frame.");
+		if (payload.length < payloadSize)
+			payload = new byte[payloadSize];
+		if (block.length < size)
+			block = new byte[size];
+		try {
+			data.readFully(payload, 0, payloadSize);
+		} catch (EOFException e) {
+			throw new IOException("Truncated frame.", e);
+		}
+
+		try {
+			BitSequence frame = new BitSequence();
+			frame.wrap(ByteBuffer.wrap(payload, 0, payloadSize).slice());
+			CanonicalCode canonical = CanonicalCode.readHeader(frame, 0, symbolLength);
+			int start = (canonical.getHeaderLength() + 7) / 8 * 8;
+			// the padding of the last symbol may decode to extra bytes, the target drops them
+			BitWriter output = new BitWriter(ByteBuffer.wrap(block, 0, size));
+			canonical.getDecodeTable().decode(frame, start, payloadSize * 8, output);
+			output.flush();
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException("Corrupted frame.", e);
+		}
+		position = 0;
+		count = size;
+		return true;
+	}
+}
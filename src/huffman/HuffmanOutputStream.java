@@ -0,0 +1,154 @@
+package huffman;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+/**
+ * Compresses a stream of unknown length with bounded memory. The bytes are gathered in blocks;
+ * each block is counted and then coded with its own canonical code, and written as a frame
+ * that can be decoded on its own. Nothing is read twice and no temporary file is needed.
+ * A block whose codes would take more room than its bytes is stored in its frame as it is.
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+	// set in the payload size of a stored frame
+	static final int STORED_FRAME = 1 << 31;
+
+	private final int symbolLength;
+	private final byte[] block;
+	private final Histogram histogram;
+	private final BitWriter output;
+	private int count;
+	private boolean closed;
+
+	/**
+	 * @param out          - where the compressed stream is written
+	 * @param symbolLength - bit length of the symbols
+	 */
+	public HuffmanOutputStream(OutputStream out, int symbolLength) throws IOException {
+		this(out, symbolLength, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param out          - where the compressed stream is written
+	 * @param symbolLength - bit length of the symbols (1 to 16)
+	 * @param blockSize    - bytes kept before a frame is written, rounded down to a multiple of the symbol length
+	 */
+	public HuffmanOutputStream(OutputStream out, int symbolLength, int blockSize) throws IOException {
+		super(out);
+		if (symbolLength < 1 || symbolLength > 16)
+			throw new IllegalArgumentException("Symbol length must be between 1 and 16.");
+		this.symbolLength = symbolLength;
+		this.block = new byte[Math.max(symbolLength, blockSize / symbolLength * symbolLength)];
+		this.histogram = new Histogram(symbolLength);
+		this.output = new BitWriter(Channels.newChannel(out));
+
+		// header: 0 <format> <symbol length> 000
+		output.write(Format.MARKER, 8);
+		output.write(Format.STREAM.getId(), 8);
+		output.write(symbolLength, 5);
+		output.write(0, 3);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (count == block.length)
+			writeFrame();
+		block[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		while (len > 0) {
+			if (count == block.length)
+				writeFrame();
+			int n = Math.min(len, block.length - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes the bytes gathered so far as a frame, even if the block isn't full, and flushes the stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		writeFrame();
+		output.flush();
+		out.flush();
+	}
+
+	/**
+	 * Writes the last frame and the end of the stream, and closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		try {
+			writeFrame();
+			output.write(0, 32);
+			output.flush();
+		} finally {
+			closed = true;
+			out.close();
+		}
+	}
+
+	/**
+	 * frame: <original size> <payload size> <code lengths> <codes>
+	 * Both the code lengths and the codes are padded to a byte.
+	 * stored frame: <original size> <1> <original size> <original bytes>
+	 */
+	private void writeFrame() throws IOException {
+		if (count == 0)
+			return;
+		histogram.reset();
+		histogram.update(block, 0, count);
+		histogram.finish();
+		CanonicalCode canonical = buildCode(histogram);
+		EncodeTable table = canonical.getEncodeTable();
+
+		BitSequence lengths = new BitSequence();
+		canonical.writeHeader(lengths);
+		long codedBits = table.getCodedLength(histogram.getCounts());
+		long payload = (lengths.getNumberOfBits() + 7) / 8 + (codedBits + 7) / 8;
+		if (payload >= count) {
+			output.write(count, 32);
+			output.write(STORED_FRAME | count, 32);
+			output.write(ByteBuffer.wrap(block, 0, count));
+			count = 0;
+			return;
+		}
+
+		output.write(count, 32);
+		output.write(payload, 32);
+		output.write(lengths);
+		output.write(0, (8 - lengths.getNumberOfBits() % 8) % 8);
+		// frames written by flush and the last one can end in the middle of a symbol
+		table.code(ByteBuffer.wrap(block, 0, count), output::write);
+		output.write(0, (int) ((8 - codedBits % 8) % 8));
+		count = 0;
+	}
+
+	private CanonicalCode buildCode(Histogram histogram) throws IOException {
+		try {
+			return CanonicalCode.fromCounts(histogram.getCounts(), symbolLength, CanonicalCode.DEFAULT_CODE_LENGTH_LIMIT);
+		} catch (Exception e) {
+			throw new IOException("Cannot build the code of a frame.", e);
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed)
+			throw new IOException("Stream closed.");
+	}
+}
@@ -0,0 +1,57 @@
+package huffman;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Keeps idle encoders and decoders so their buffers are reused between files. Each thread
+ * borrows its own instance, so any number of files can be compressed at the same time.
+ * When the pool is empty a new instance is made; instances returned to a full pool are dropped.
+ */
+public class HuffmanPool {
+	private static final HuffmanPool SHARED = new HuffmanPool(Runtime.getRuntime().availableProcessors());
+
+	private final BlockingQueue<HuffmanEncoder> encoders;
+	private final BlockingQueue<HuffmanDecoder> decoders;
+
+	/**
+	 * @param capacity - maximum number of idle instances of each kind
+	 */
+	public HuffmanPool(int capacity) {
+		this.encoders = new ArrayBlockingQueue<>(capacity);
+		this.decoders = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * @return the pool used by Compressor and Decompressor
+	 */
+	public static HuffmanPool shared() {
+		return SHARED;
+	}
+
+	public HuffmanEncoder acquireEncoder() {
+		HuffmanEncoder encoder = encoders.poll();
+		return encoder == null ? new HuffmanEncoder() : encoder;
+	}
+
+	public HuffmanDecoder acquireDecoder() {
+		HuffmanDecoder decoder = decoders.poll();
+		return decoder == null ? new HuffmanDecoder() : decoder;
+	}
+
+	/**
+	 * Returns an encoder to the pool, reset to its defaults so the next borrower doesn't
+	 * inherit its settings.
+	 *
+	 * @param encoder - no longer used by the caller
+	 */
+	public void release(HuffmanEncoder encoder) {
+		encoder.reset();
+		encoders.offer(encoder);
+	}
+
+	public void release(HuffmanDecoder decoder) {
+		decoder.reset();
+		decoders.offer(decoder);
+	}
+}
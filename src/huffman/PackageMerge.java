@@ -0,0 +1,85 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * Optimal code lengths with a maximum length, by the package-merge algorithm. Each level
+ * merges the symbols, sorted by weight, with the packages of pairs of the level below; the
+ * 2n - 2 lightest items of the last level say how many times each symbol is chosen, which
+ * is its code length.
+ */
+class PackageMerge {
+
+	private PackageMerge() {
+	}
+
+	/**
+	 * @param weights   - weight of each symbol, all above 0
+	 * @param maxLength - maximum code length
+	 * @return the code length of each symbol
+	 * @throws Exception if there are more symbols than codes of the maximum length
+	 */
+	static int[] lengths(long[] weights, int maxLength) throws Exception {
+		int n = weights.length;
+		int[] lengths = new int[n];
+		if (n == 0)
+			return lengths;
+		if (n == 1) {
+			lengths[0] = 1;
+			return lengths;
+		}
+		if (maxLength < 63 && (1L << maxLength) < n)
+			throw new Exception(n + " symbols don't fit in codes of " + maxLength + " bits.");
+
+		// sort the symbols by weight, keeping the index in the low bits
+		long[] order = new long[n];
+		int indexBits = 32 - Integer.numberOfLeadingZeros(n);
+		for (int i = 0; i < n; i++)
+			order[i] = (weights[i] << indexBits) | i;
+		Arrays.sort(order);
+		long[] sorted = new long[n];
+		for (int i = 0; i < n; i++)
+			sorted[i] = order[i] >>> indexBits;
+
+		// levels[l] holds the items of a level, leaves[l] whether each one is a symbol or a package
+		int levelCount = Math.min(maxLength, n - 1);
+		long[][] levels = new long[levelCount][];
+		boolean[][] leaves = new boolean[levelCount][];
+		levels[0] = sorted;
+		leaves[0] = new boolean[n];
+		Arrays.fill(leaves[0], true);
+		for (int level = 1; level < levelCount; level++) {
+			long[] below = levels[level - 1];
+			int packages = below.length / 2;
+			long[] items = new long[n + packages];
+			boolean[] isLeaf = new boolean[n + packages];
+			int s = 0;
+			int p = 0;
+			for (int i = 0; i < items.length; i++) {
+				long packageWeight = p < packages ? below[2 * p] + below[2 * p + 1] : Long.MAX_VALUE;
+				if (s < n && sorted[s] <= packageWeight) {
+					items[i] = sorted[s++];
+					isLeaf[i] = true;
+				} else {
+					items[i] = packageWeight;
+					p++;
+				}
+			}
+			levels[level] = items;
+			leaves[level] = isLeaf;
+		}
+
+		// the leaves taken at a level are always the lightest symbols
+		int taken = 2 * n - 2;
+		for (int level = levelCount - 1; level >= 0; level--) {
+			int symbols = 0;
+			for (int i = 0; i < taken; i++)
+				if (leaves[level][i])
+					symbols++;
+			for (int i = 0; i < symbols; i++)
+				lengths[(int) (order[i] & ((1L << indexBits) - 1))]++;
+			taken = 2 * (taken - symbols);
+		}
+		return lengths;
+	}
+}
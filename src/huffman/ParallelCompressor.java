@@ -0,0 +1,198 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Both compression passes split over a ForkJoinPool. The file is cut into chunks of a whole
+ * number of symbols, so every chunk can be counted and coded on its own and the results
+ * joined in order give the same bits as the sequential pass.
+ */
+class ParallelCompressor {
+	private static final int CHUNK_SIZE = 1 << 22;
+
+	private ParallelCompressor() {
+	}
+
+	/**
+	 * @param symbolLength - bit length of the symbols
+	 * @return chunk size in bytes, a multiple of the symbol length so chunks hold whole symbols
+	 */
+	static int chunkSize(int symbolLength) {
+		return CHUNK_SIZE / symbolLength * symbolLength;
+	}
+
+	/**
+	 * Counts the symbols of the file, one histogram per chunk, merged two by two.
+	 *
+	 * @param channel      - file to compress
+	 * @param symbolLength - length of each symbol of the file
+	 * @param pool         - where the chunks are counted
+	 */
+	static Histogram getFileHistogram(FileChannel channel, int symbolLength, ForkJoinPool pool) throws IOException {
+		long size = channel.size();
+		int chunkSize = chunkSize(symbolLength);
+		int chunks = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+		try {
+			return pool.invoke(new HistogramTask(channel, size, symbolLength, 0, chunks));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Codes every chunk into its own bit buffer and writes the buffers in order. Only a few
+	 * chunks per worker are in flight at a time, so memory stays bounded.
+	 *
+	 * @param channel      - file to compress
+	 * @param symbolLength - length of each symbol of the file
+	 * @param table        - code of each symbol
+	 * @param output       - where the coded file is written
+	 * @param pool         - where the chunks are coded
+	 * @return the number of padding bits at the end of the coded file
+	 */
+	static int codeFile(FileChannel channel, int symbolLength, EncodeTable table, BitWriter output, ForkJoinPool pool) throws IOException {
+		codeChunks(channel, symbolLength, table, output, pool, chunkSize(symbolLength), null);
+		return output.flush();
+	}
+
+	/**
+	 * Codes the file as independent blocks and records where each one starts.
+	 *
+	 * @param channel      - file to compress
+	 * @param symbolLength - length of each symbol of the file
+	 * @param table        - code of each symbol
+	 * @param output       - where the coded file is written
+	 * @param pool         - where the blocks are coded, or null to code them in this thread
+	 * @param blockSize    - number of bytes of the file in each block, a multiple of the symbol length
+	 * @return the index of the blocks
+	 */
+	static BlockIndex codeBlocks(FileChannel channel, int symbolLength, EncodeTable table, BitWriter output, ForkJoinPool pool, int blockSize) throws IOException {
+		BlockIndex index = new BlockIndex(blockSize);
+		codeChunks(channel, symbolLength, table, output, pool, blockSize, index);
+		output.flush();
+		return index;
+	}
+
+	private static void codeChunks(FileChannel channel, int symbolLength, EncodeTable table, BitWriter output, ForkJoinPool pool, int chunkSize, BlockIndex index) throws IOException {
+		long size = channel.size();
+		int inFlight = pool == null ? 1 : 2 * pool.getParallelism();
+		Queue<CodeTask> pending = new ArrayDeque<>();
+		try {
+			for (long from = 0; from < size; from += chunkSize) {
+				int length = (int) Math.min(chunkSize, size - from);
+				CodeTask task = new CodeTask(channel, from, length, table);
+				if (pool != null)
+					pool.execute(task);
+				else
+					task.invoke();
+				pending.add(task);
+				if (pending.size() >= inFlight)
+					write(pending.poll(), output, index);
+			}
+			while (!pending.isEmpty())
+				write(pending.poll(), output, index);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Writes the codes of a chunk. A block whose codes would take more room than its bytes is
+	 * stored instead, from a byte boundary so it can be copied as it is.
+	 */
+	private static void write(CodeTask task, BitWriter output, BlockIndex index) throws IOException {
+		BitSequence coded = task.join();
+		if (index != null && coded.getNumberOfBits() >= task.length * 8L) {
+			output.flush();
+			index.add(output.getBitCount(), task.length, true);
+			try {
+				output.write(mapChunk(task.channel, task.from, task.length));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			return;
+		}
+		if (index != null)
+			index.add(output.getBitCount(), task.length);
+		output.write(coded);
+	}
+
+	private static ByteBuffer mapChunk(FileChannel channel, long from, int length) {
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static class HistogramTask extends RecursiveTask<Histogram> {
+		private static final long serialVersionUID = 1L;
+		private final FileChannel channel;
+		private final long size;
+		private final int symbolLength;
+		private final int firstChunk;
+		private final int lastChunk;
+
+		HistogramTask(FileChannel channel, long size, int symbolLength, int firstChunk, int lastChunk) {
+			this.channel = channel;
+			this.size = size;
+			this.symbolLength = symbolLength;
+			this.firstChunk = firstChunk;
+			this.lastChunk = lastChunk;
+		}
+
+		@Override
+		protected Histogram compute() {
+			if (lastChunk - firstChunk > 1) {
+				int middle = (firstChunk + lastChunk) >>> 1;
+				HistogramTask left = new HistogramTask(channel, size, symbolLength, firstChunk, middle);
+				left.fork();
+				Histogram right = new HistogramTask(channel, size, symbolLength, middle, lastChunk).compute();
+				Histogram merged = left.join();
+				merged.merge(right);
+				return merged;
+			}
+			int chunkSize = chunkSize(symbolLength);
+			long from = (long) firstChunk * chunkSize;
+			int length = (int) Math.max(0, Math.min(chunkSize, size - from));
+			Histogram histogram = new Histogram(symbolLength);
+			histogram.update(mapChunk(channel, from, length));
+			histogram.finish();
+			return histogram;
+		}
+	}
+
+	private static class CodeTask extends RecursiveTask<BitSequence> {
+		private static final long serialVersionUID = 1L;
+		private final FileChannel channel;
+		private final long from;
+		private final int length;
+		private final EncodeTable table;
+
+		CodeTask(FileChannel channel, long from, int length, EncodeTable table) {
+			this.channel = channel;
+			this.from = from;
+			this.length = length;
+			this.table = table;
+		}
+
+		@Override
+		protected BitSequence compute() {
+			BitSequence coded = new BitSequence();
+			try {
+				// only the last chunk can end in the middle of a symbol
+				table.code(mapChunk(channel, from, length), coded::appendBits);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return coded;
+		}
+	}
+}
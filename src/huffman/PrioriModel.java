@@ -0,0 +1,155 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import huffman.tree.HuffmanNode;
+
+/**
+ * The code of an a priori probabilities table, compiled once into the tables the coder and
+ * the decoder use. It is never changed after it is built, so one instance can serve any
+ * number of files at the same time.
+ *
+ * It can be saved to a binary file and read back without parsing the table or building the tree.
+ * file: <magic> <version> <hash length> <hash> <symbol count> (<symbol width> <symbol> <code length> <code>)*
+ */
+public class PrioriModel {
+	private static final int MAGIC = 0x48554650;
+	private static final int VERSION = 1;
+
+	private final byte[] hash;
+	private final long[] symbols;
+	private final int[] widths;
+	private final long[] codes;
+	private final int[] lengths;
+	private final TokenModel tokens;
+	private final EncodeTable encodeTable;
+	private final DecodeTable decodeTable;
+
+	private PrioriModel(byte[] hash, long[] symbols, int[] widths, long[] codes, int[] lengths) throws Exception {
+		this.hash = hash;
+		this.symbols = symbols;
+		this.widths = widths;
+		this.codes = codes;
+		this.lengths = lengths;
+
+		List<BitSequence> keys = new ArrayList<>(symbols.length);
+		Map<BitSequence, BitSequence> mapping = new HashMap<>(symbols.length);
+		for (int i = 0; i < symbols.length; i++) {
+			BitSequence symbol = new BitSequence().appendBits(symbols[i], widths[i]);
+			keys.add(symbol);
+			mapping.put(symbol, new BitSequence().appendBits(codes[i], lengths[i]));
+		}
+		this.tokens = TokenModel.of(keys);
+		this.encodeTable = tokens.getEncodeTable(mapping);
+		this.decodeTable = new DecodeTable(codes, lengths, symbols, widths);
+	}
+
+	/**
+	 * Builds the Huffman code of the probabilities.
+	 *
+	 * @param probabilities - probability of each symbol, whole bytes of up to 64 bits each
+	 * @param hash          - hash of the table the probabilities were read from
+	 */
+	public static PrioriModel compile(Map<BitSequence, Double> probabilities, byte[] hash) throws Exception {
+		HuffmanNode tree = Utils.createHuffmanTree(probabilities);
+		Map<BitSequence, BitSequence> mapping = Utils.createMapping(tree, probabilities.size());
+		int n = mapping.size();
+		long[] symbols = new long[n];
+		int[] widths = new int[n];
+		long[] codes = new long[n];
+		int[] lengths = new int[n];
+		int i = 0;
+		for (Map.Entry<BitSequence, BitSequence> entry : mapping.entrySet()) {
+			widths[i] = entry.getKey().getNumberOfBits();
+			lengths[i] = entry.getValue().getNumberOfBits();
+			if (widths[i] > 64 || lengths[i] > 64)
+				throw new Exception("Symbols and codes longer than 64 bits are not supported.");
+			symbols[i] = entry.getKey().getBits(0, widths[i]);
+			codes[i] = entry.getValue().getBits(0, lengths[i]);
+			i++;
+		}
+		return new PrioriModel(hash.clone(), symbols, widths, codes, lengths);
+	}
+
+	/**
+	 * Reads a model written by write.
+	 *
+	 * @param modelPath - the binary file
+	 * @throws IOException if the file isn't a model of this version
+	 */
+	public static PrioriModel read(String modelPath) throws Exception {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(modelPath)));
+		try {
+			if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+				throw new IOException("Not a model file: " + modelPath);
+			byte[] hash = new byte[in.readUnsignedByte()];
+			in.readFully(hash);
+			int n = in.readInt();
+			long[] symbols = new long[n];
+			int[] widths = new int[n];
+			long[] codes = new long[n];
+			int[] lengths = new int[n];
+			for (int i = 0; i < n; i++) {
+				widths[i] = in.readUnsignedByte();
+				symbols[i] = in.readLong();
+				lengths[i] = in.readUnsignedByte();
+				codes[i] = in.readLong();
+			}
+			return new PrioriModel(hash, symbols, widths, codes, lengths);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param modelPath - the binary file to write
+	 */
+	public void write(String modelPath) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(modelPath)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte(hash.length);
+			out.write(hash);
+			out.writeInt(symbols.length);
+			for (int i = 0; i < symbols.length; i++) {
+				out.writeByte(widths[i]);
+				out.writeLong(symbols[i]);
+				out.writeByte(lengths[i]);
+				out.writeLong(codes[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return whether the model was compiled from a table with this hash
+	 */
+	public boolean hasHash(byte[] hash) {
+		return Arrays.equals(this.hash, hash);
+	}
+
+	public TokenModel getTokenModel() {
+		return tokens;
+	}
+
+	public EncodeTable getEncodeTable() {
+		return encodeTable;
+	}
+
+	public DecodeTable getDecodeTable() {
+		return decodeTable;
+	}
+}
@@ -0,0 +1,140 @@
+package huffman;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import exceptions.ProbabilityFileException;
+
+/**
+ * Compiled a priori models, by the hash of the contents of their probabilities file, so a
+ * table is parsed and its tree built once and not for every file. The least recently used
+ * model is dropped when there are more than the capacity.
+ *
+ * With sidecars, a compiled model is also saved next to the probabilities file, with
+ * SIDECAR_EXTENSION added to its name, and read from there by later processes. A sidecar
+ * whose hash doesn't match the table is compiled again; one that can't be written is skipped.
+ * The shared registry only keeps sidecars when the SIDECARS_PROPERTY system property is true,
+ * so compressing doesn't write next to the caller's table unless asked to.
+ */
+public class PrioriModelRegistry {
+	public static final String SIDECAR_EXTENSION = ".model";
+	public static final String SIDECARS_PROPERTY = "huffman.priori.sidecars";
+	public static final int DEFAULT_CAPACITY = 16;
+	private static final PrioriModelRegistry SHARED = new PrioriModelRegistry(DEFAULT_CAPACITY, Boolean.getBoolean(SIDECARS_PROPERTY));
+
+	private final Map<String, PrioriModel> models;
+	private final boolean sidecars;
+
+	/**
+	 * @param capacity - maximum number of models kept
+	 * @param sidecars - whether compiled models are saved next to their probabilities file
+	 */
+	public PrioriModelRegistry(int capacity, boolean sidecars) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		this.sidecars = sidecars;
+		this.models = new LinkedHashMap<String, PrioriModel>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PrioriModel> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return the registry used by HuffmanEncoder and HuffmanDecoder
+	 */
+	public static PrioriModelRegistry shared() {
+		return SHARED;
+	}
+
+	/**
+	 * @param probabilitiesPath - file containing the probabilities
+	 * @return the compiled model of the file
+	 * @throws ProbabilityFileException if the file can't be read
+	 */
+	public PrioriModel get(String probabilitiesPath) throws Exception {
+		byte[] table;
+		try {
+			table = Files.readAllBytes(Paths.get(probabilitiesPath));
+		} catch (Exception e) {
+			throw new ProbabilityFileException();
+		}
+		byte[] hash = MessageDigest.getInstance("SHA-256").digest(table);
+		String key = toHex(hash);
+		synchronized (models) {
+			PrioriModel model = models.get(key);
+			if (model != null)
+				return model;
+		}
+
+		// two threads may compile the same table at once, they get equal models
+		String sidecarPath = probabilitiesPath + SIDECAR_EXTENSION;
+		PrioriModel model = sidecars ? readSidecar(sidecarPath, hash) : null;
+		if (model == null) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(table)));
+			model = PrioriModel.compile(Utils.getPrioriProbabilities(reader), hash);
+			if (sidecars)
+				writeSidecar(model, sidecarPath);
+		}
+		synchronized (models) {
+			models.put(key, model);
+		}
+		return model;
+	}
+
+	/**
+	 * Drops every model kept in memory. Sidecars are left as they are.
+	 */
+	public void clear() {
+		synchronized (models) {
+			models.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (models) {
+			return models.size();
+		}
+	}
+
+	private static PrioriModel readSidecar(String sidecarPath, byte[] hash) {
+		if (!new File(sidecarPath).isFile())
+			return null;
+		try {
+			PrioriModel model = PrioriModel.read(sidecarPath);
+			return model.hasHash(hash) ? model : null;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static void writeSidecar(PrioriModel model, String sidecarPath) {
+		// written aside and moved, so a reader never sees half a sidecar
+		File temporary = new File(sidecarPath + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			model.write(temporary.getPath());
+			Files.move(temporary.toPath(), Paths.get(sidecarPath), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (Exception e) {
+			temporary.delete();
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+}
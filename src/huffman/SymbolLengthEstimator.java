@@ -0,0 +1,190 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Picks the symbol length that compresses a file best without compressing it. A sample of
+ * the file is read once and counted for every candidate length; each candidate is scored by
+ * the size of the sample coded with its Huffman code, scaled to the whole file, plus the
+ * size of the header the format would write. The order-1 format is scored with the tables
+ * of each context instead. The same estimate tells when a file isn't worth coding at all.
+ */
+public class SymbolLengthEstimator {
+	public static final int MIN_SYMBOL_LENGTH = 2;
+	public static final int MAX_SYMBOL_LENGTH = 12;
+	public static final int SAMPLE_SIZE = 1 << 20;
+	private static final int SLICES = 16;
+	private static final int HEADER_BITS = 24;
+
+	private SymbolLengthEstimator() {
+	}
+
+	/**
+	 * @param filePath - file to compress
+	 * @param format   - format it will be compressed with
+	 * @return the symbol length with the smallest estimated compressed size, among the ones the
+	 *         format decodes back to the same file
+	 */
+	public static int choose(String filePath, Format format) throws IOException {
+		long[] estimates = estimate(filePath, format);
+		// 2 divides the bits of any file
+		int best = MIN_SYMBOL_LENGTH;
+		for (int symbolLength = MIN_SYMBOL_LENGTH; symbolLength <= maxSymbolLength(format); symbolLength++)
+			if (estimates[symbolLength] > 0 && estimates[symbolLength] < estimates[best])
+				best = symbolLength;
+		return best;
+	}
+
+	/**
+	 * @param filePath - file to compress
+	 * @param format   - format it will be compressed with
+	 * @return the estimated compressed size in bits, indexed by symbol length; lengths that
+	 *         aren't candidates are left at 0
+	 */
+	public static long[] estimate(String filePath, Format format) throws IOException {
+		int max = maxSymbolLength(format);
+		Sample sample = new Sample(filePath);
+		long[] estimates = new long[max + 1];
+		for (int symbolLength = MIN_SYMBOL_LENGTH; symbolLength <= max; symbolLength++)
+			if (isCandidate(symbolLength, sample.size, format))
+				estimates[symbolLength] = estimate(sample, symbolLength, format);
+		return estimates;
+	}
+
+	/**
+	 * The tree format doesn't keep the size of the file, so it decodes the padding of a last
+	 * incomplete symbol as a whole symbol. Only the lengths that divide the bits of the file are
+	 * candidates for it; the other formats drop the padding.
+	 */
+	private static boolean isCandidate(int symbolLength, long size, Format format) {
+		return format != Format.TREE || size * 8 % symbolLength == 0;
+	}
+
+	/**
+	 * @param filePath     - file to compress
+	 * @param symbolLength - bit length of the symbols
+	 * @param format       - format it will be compressed with
+	 * @return whether the file is estimated to get smaller, as already compressed files don't
+	 */
+	public static boolean isCompressible(String filePath, int symbolLength, Format format) throws IOException {
+		Sample sample = new Sample(filePath);
+		return estimate(sample, symbolLength, format) < sample.size * 8;
+	}
+
+	private static long estimate(Sample sample, int symbolLength, Format format) throws IOException {
+		if (format == Format.CONTEXT) {
+			ContextHistogram histogram = new ContextHistogram(symbolLength);
+			for (int i = 0; i < sample.slices.length; i++)
+				histogram.update(sample.aligned(i, symbolLength));
+			histogram.finish();
+			return estimate(histogram, sample.size);
+		}
+		Histogram histogram = new Histogram(symbolLength);
+		for (int i = 0; i < sample.slices.length; i++)
+			histogram.update(sample.aligned(i, symbolLength));
+		histogram.finish();
+		return estimate(histogram, sample.size, format);
+	}
+
+	private static long estimate(Histogram histogram, long size, Format format) throws IOException {
+		int symbolLength = histogram.getSymbolLength();
+		long[] counts = histogram.getCounts();
+		long symbols = (size * 8 + symbolLength - 1) / symbolLength;
+		int distinct = 0;
+		for (long count : counts)
+			if (count > 0)
+				distinct++;
+		CanonicalCode code;
+		try {
+			code = CanonicalCode.fromCounts(counts, symbolLength, CanonicalCode.DEFAULT_CODE_LENGTH_LIMIT);
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+		long sampled = Math.max(1, histogram.getTotal());
+		long coded = (long) (code.getEncodeTable().getCodedLength(counts) * (symbols / (double) sampled));
+		switch (format) {
+		case TREE:
+			// dfs of the tree and the symbols in it
+			return coded + HEADER_BITS + 2 * distinct + (long) distinct * symbolLength;
+		case ADAPTIVE:
+			// each new symbol is sent after the escape code
+			return coded + HEADER_BITS + (long) distinct * (symbolLength + 1);
+		case STREAM:
+			long frames = Math.max(1, (size + HuffmanOutputStream.DEFAULT_BLOCK_SIZE - 1) / HuffmanOutputStream.DEFAULT_BLOCK_SIZE);
+			return coded + HEADER_BITS + frames * (64 + code.getHeaderLength());
+		case INTERLEAVED:
+			// the size, the jump table and the padding of each stream
+			return coded + HEADER_BITS + code.getHeaderLength() + HuffmanEncoder.ORIGINAL_SIZE_BIT_LENGTH + Format.JUMP_TABLE_SIZE * 8
+					+ Format.INTERLEAVED_STREAMS * 4;
+		default:
+			return coded + HEADER_BITS + code.getHeaderLength();
+		}
+	}
+
+	private static long estimate(ContextHistogram histogram, long size) throws IOException {
+		int symbolLength = histogram.getSymbolLength();
+		long symbols = (size * 8 + symbolLength - 1) / symbolLength;
+		ContextCode code;
+		try {
+			code = ContextCode.fromCounts(histogram, CanonicalCode.DEFAULT_CODE_LENGTH_LIMIT);
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+		long sampled = Math.max(1, histogram.getTotal());
+		return (long) (code.getCodedLength(histogram) * (symbols / (double) sampled)) + HEADER_BITS + code.getHeaderLength();
+	}
+
+	/**
+	 * The whole file if it is small, or slices spread over it, read once.
+	 */
+	private static class Sample {
+		private final long size;
+		private final long[] starts;
+		private final ByteBuffer[] slices;
+
+		Sample(String filePath) throws IOException {
+			FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+			try {
+				size = channel.size();
+				int count = size <= SAMPLE_SIZE ? 1 : SLICES;
+				int sliceSize = (int) Math.min(size, SAMPLE_SIZE / count);
+				starts = new long[count];
+				slices = new ByteBuffer[count];
+				for (int i = 0; i < count; i++) {
+					starts[i] = count == 1 ? 0 : (size - sliceSize) / (count - 1) * i;
+					slices[i] = ByteBuffer.allocate(sliceSize);
+					while (slices[i].hasRemaining() && channel.read(slices[i], starts[i] + slices[i].position()) >= 0)
+						;
+					slices[i].flip();
+				}
+			} finally {
+				channel.close();
+			}
+		}
+
+		/**
+		 * Skips the first bytes of a slice up to where a symbol of the file starts and leaves out
+		 * the last incomplete symbols, so the slice is counted as the whole file would be.
+		 */
+		ByteBuffer aligned(int slice, int symbolLength) {
+			ByteBuffer aligned = slices[slice].duplicate();
+			if (slices.length == 1)
+				return aligned;
+			int skip = 0;
+			while ((starts[slice] + skip) * 8 % symbolLength != 0)
+				skip++;
+			int length = Math.max(0, aligned.limit() - skip) / symbolLength * symbolLength;
+			aligned.position(Math.min(aligned.limit(), skip));
+			aligned.limit(aligned.position() + length);
+			return aligned;
+		}
+	}
+
+	private static int maxSymbolLength(Format format) {
+		return format == Format.CONTEXT ? Math.min(MAX_SYMBOL_LENGTH, ContextCode.MAX_SYMBOL_LENGTH) : MAX_SYMBOL_LENGTH;
+	}
+}
@@ -0,0 +1,45 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * How the bytes of a file are split into the symbols that get a Huffman code. Every model
+ * numbers its symbols from 0, so they all share the same Histogram, EncodeTable and
+ * DecodeTable; only the splitting and what each symbol decodes to change.
+ */
+public interface SymbolModel {
+
+	/**
+	 * @return the number of bits of a symbol number, the tables have 2^that entries
+	 */
+	int getSymbolLength();
+
+	/**
+	 * Counts the symbols of the bytes between the position and the limit of the buffer.
+	 * Histogram.finish must be called after the last bytes.
+	 *
+	 * @param in        - bytes of the file, such as a mapped window
+	 * @param histogram - where the symbols are counted
+	 */
+	void count(ByteBuffer in, Histogram histogram);
+
+	/**
+	 * Codes the bytes between the position and the limit of the buffer, split exactly as count did.
+	 *
+	 * @param in    - bytes of the file, such as a mapped window
+	 * @param table - code of each symbol
+	 * @param out   - where the codes are written
+	 */
+	void code(ByteBuffer in, EncodeTable table, EncodeTable.Sink out) throws IOException;
+
+	/**
+	 * @return the bits a symbol decodes to, right aligned
+	 */
+	long getBits(int symbol);
+
+	/**
+	 * @return the number of bits a symbol decodes to
+	 */
+	int getWidth(int symbol);
+}
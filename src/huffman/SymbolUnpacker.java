@@ -0,0 +1,63 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cuts fixed length symbols out of bytes many at a time, for the histogram and the coder.
+ * The SIMD implementation, VectorSymbolUnpacker, is in the vector source folder and needs the
+ * incubating Vector API:
+ *
+ *   javac --add-modules jdk.incubator.vector -d classes $(find src vector -name '*.java')
+ *   java --add-modules jdk.incubator.vector -cp classes Main
+ *
+ * Without the module, without the class, or on a CPU whose vectors hold fewer than 8 ints,
+ * which its static isSupported() tells, get() returns null and the callers keep to their
+ * scalar loops.
+ */
+abstract class SymbolUnpacker {
+	private static final String VECTOR_CLASS = "huffman.VectorSymbolUnpacker";
+	private static final SymbolUnpacker INSTANCE = load();
+
+	/**
+	 * @return the SIMD unpacker, or null if it can't run here
+	 */
+	static SymbolUnpacker get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the longest symbols unpack can cut
+	 */
+	abstract int getMaxSymbolLength();
+
+	/**
+	 * Unpacks the symbols of as many whole chunks as fit in the bytes and the array. A chunk
+	 * is a fixed number of bytes that holds a whole number of symbols, the first one starting
+	 * at the first bit of the chunk.
+	 *
+	 * @param in           - the bytes to unpack
+	 * @param from         - first byte, at the start of a symbol
+	 * @param to           - end of the bytes (exclusive)
+	 * @param symbolLength - bit length of the symbols (1 to getMaxSymbolLength())
+	 * @param symbols      - where the symbols go, from index 0
+	 * @return the number of bytes unpacked, which hold bytes * 8 / symbolLength symbols
+	 */
+	abstract int unpack(ByteBuffer in, int from, int to, int symbolLength, int[] symbols);
+
+	private static SymbolUnpacker load() {
+		Class<?> vector;
+		try {
+			vector = Class.forName(VECTOR_CLASS);
+		} catch (ClassNotFoundException | LinkageError e) {
+			// not compiled in, or compiled without the Vector API at run time
+			return null;
+		}
+		try {
+			if (!(Boolean) vector.getDeclaredMethod("isSupported").invoke(null))
+				return null;
+			return (SymbolUnpacker) vector.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("The vector unpacker can't be built.", e);
+		}
+	}
+}
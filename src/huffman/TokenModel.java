@@ -0,0 +1,377 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Symbols are tokens of 1 to MAX_TOKEN_LENGTH bytes. Symbols 0 to 255 are the single bytes,
+ * so any file can be split; the tokens of the vocabulary follow them. The file is split
+ * greedily, taking the longest token that matches at each position.
+ *
+ * The vocabulary can be made of the most frequent byte pairs or words of a sample of the file,
+ * or given, such as the keys of an a priori probability table.
+ * header: <token count> (<token length - 2> <token bytes>)*
+ */
+public class TokenModel implements SymbolModel {
+	public static final int MAX_TOKEN_LENGTH = 7;
+	// the default tokens and the bytes take symbols of 12 bits
+	static final int DEFAULT_SYMBOL_LENGTH = 12;
+	public static final int DEFAULT_TOKENS = (1 << DEFAULT_SYMBOL_LENGTH) - 256;
+	public static final int SAMPLE_SIZE = 1 << 20;
+	private static final int BYTE_SYMBOLS = 256;
+	private static final int MAX_SYMBOL_LENGTH = 16;
+	private static final int COUNT_BITS = 16;
+	private static final int LENGTH_BITS = 3;
+	private static final int BATCH_SIZE = 1 << 14;
+
+	private final byte[][] tokens;
+	private final int symbolLength;
+	private final int maxLength;
+	// bit i is set when a token of i bytes starts with the byte
+	private final int[] lengthsByFirstByte = new int[BYTE_SYMBOLS];
+	private final long[] keys;
+	private final int[] ids;
+
+	/**
+	 * @param tokens - the tokens after the single bytes, of 2 to MAX_TOKEN_LENGTH bytes and all different
+	 * @throws Exception if a token is too short or too long, or repeated
+	 */
+	public TokenModel(List<byte[]> tokens) throws Exception {
+		if (tokens.size() > (1 << MAX_SYMBOL_LENGTH) - BYTE_SYMBOLS)
+			throw new Exception("At most " + ((1 << MAX_SYMBOL_LENGTH) - BYTE_SYMBOLS) + " tokens are supported.");
+		this.tokens = tokens.toArray(new byte[0][]);
+		this.symbolLength = Math.max(8, 32 - Integer.numberOfLeadingZeros(BYTE_SYMBOLS + this.tokens.length - 1));
+
+		int capacity = Integer.highestOneBit(Math.max(1, this.tokens.length) * 2) * 2;
+		this.keys = new long[capacity];
+		this.ids = new int[capacity];
+		int max = 1;
+		for (int i = 0; i < this.tokens.length; i++) {
+			byte[] token = this.tokens[i];
+			if (token.length < 2 || token.length > MAX_TOKEN_LENGTH)
+				throw new Exception("Tokens must have between 2 and " + MAX_TOKEN_LENGTH + " bytes.");
+			long key = key(token, 0, token.length);
+			int slot = slot(key);
+			if (keys[slot] == key)
+				throw new Exception("Repeated token.");
+			keys[slot] = key;
+			ids[slot] = BYTE_SYMBOLS + i;
+			lengthsByFirstByte[token[0] & 0xFF] |= 1 << token.length;
+			max = Math.max(max, token.length);
+		}
+		this.maxLength = max;
+	}
+
+	/**
+	 * Takes the most frequent byte pairs of a sample as tokens.
+	 *
+	 * @param sample    - bytes between the position and the limit of the buffer
+	 * @param maxTokens - maximum number of tokens
+	 */
+	public static TokenModel bytePairs(ByteBuffer sample, int maxTokens) throws Exception {
+		long[] counts = new long[1 << 16];
+		for (int i = sample.position(); i + 1 < sample.limit(); i++)
+			counts[((sample.get(i) & 0xFF) << 8) | (sample.get(i + 1) & 0xFF)]++;
+		Map<Long, Long> scores = new HashMap<>();
+		for (int pair = 0; pair < counts.length; pair++)
+			if (counts[pair] > 1)
+				scores.put(key(new byte[] { (byte) (pair >>> 8), (byte) pair }, 0, 2), counts[pair]);
+		return new TokenModel(best(scores, maxTokens));
+	}
+
+	/**
+	 * Takes the most frequent words of a sample as tokens. A word is a run of letters, with the
+	 * space before it if there is one, of 2 to MAX_TOKEN_LENGTH bytes; longer runs are left out.
+	 * Words are ranked by the bytes they would save.
+	 *
+	 * @param sample    - bytes between the position and the limit of the buffer
+	 * @param maxTokens - maximum number of tokens
+	 */
+	public static TokenModel words(ByteBuffer sample, int maxTokens) throws Exception {
+		Map<Long, Long> scores = new HashMap<>();
+		int limit = sample.limit();
+		int i = sample.position();
+		while (i < limit) {
+			int start = i;
+			if (sample.get(i) == ' ')
+				i++;
+			int letters = i;
+			while (i < limit && isLetter(sample.get(i)))
+				i++;
+			int length = i - start;
+			if (i == letters) {
+				i = start + 1;
+				continue;
+			}
+			if (length >= 2 && length <= MAX_TOKEN_LENGTH)
+				scores.merge(key(sample, start, length), (long) length - 1, Long::sum);
+		}
+		return new TokenModel(best(scores, maxTokens));
+	}
+
+	/**
+	 * Samples the start of a file and takes its most frequent byte pairs.
+	 */
+	public static TokenModel bytePairs(String filePath) throws Exception {
+		return bytePairs(sample(filePath), DEFAULT_TOKENS);
+	}
+
+	/**
+	 * Samples the start of a file and takes its most frequent words.
+	 */
+	public static TokenModel words(String filePath) throws Exception {
+		return words(sample(filePath), DEFAULT_TOKENS);
+	}
+
+	/**
+	 * Takes the symbols of a probability table as tokens. Keys of one byte are already symbols,
+	 * longer ones than MAX_TOKEN_LENGTH are left out.
+	 *
+	 * @param symbols - whole bytes each
+	 */
+	public static TokenModel of(Collection<BitSequence> symbols) throws Exception {
+		List<BitSequence> sorted = new ArrayList<>(symbols);
+		sorted.sort((a, b) -> a.getNumberOfBits() != b.getNumberOfBits() ? a.getNumberOfBits() - b.getNumberOfBits() : a.toString().compareTo(b.toString()));
+		List<byte[]> tokens = new ArrayList<>();
+		for (BitSequence symbol : sorted) {
+			if (symbol.getNumberOfBits() % 8 != 0)
+				throw new Exception("Symbols must be whole bytes.");
+			if (symbol.getNumberOfBits() > 8 && symbol.getNumberOfBits() <= MAX_TOKEN_LENGTH * 8)
+				tokens.add(symbol.getByteArray());
+		}
+		return new TokenModel(tokens);
+	}
+
+	/**
+	 * Reads the vocabulary written by writeHeader.
+	 *
+	 * @param header   - the compressed file
+	 * @param position - where the vocabulary starts
+	 */
+	public static TokenModel readHeader(BitSequence header, int position) throws Exception {
+		return readHeader(new BitReader(header, position));
+	}
+
+	/**
+	 * Reads the vocabulary written by writeHeader, leaving the reader after it.
+	 *
+	 * @param header - reader at the start of the vocabulary
+	 */
+	public static TokenModel readHeader(BitReader header) throws Exception {
+		int count = (int) header.readBits(COUNT_BITS);
+		List<byte[]> tokens = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] token = new byte[(int) header.readBits(LENGTH_BITS) + 2];
+			for (int b = 0; b < token.length; b++)
+				token[b] = (byte) header.readBits(8);
+			tokens.add(token);
+		}
+		return new TokenModel(tokens);
+	}
+
+	/**
+	 * Writes the vocabulary.
+	 *
+	 * @param header - where the vocabulary is appended
+	 */
+	public void writeHeader(BitSequence header) {
+		header.appendBits(tokens.length, COUNT_BITS);
+		for (byte[] token : tokens) {
+			header.appendBits(token.length - 2, LENGTH_BITS);
+			for (byte b : token)
+				header.appendBits(b, 8);
+		}
+	}
+
+	/**
+	 * @return the number of bits writeHeader takes
+	 */
+	public int getHeaderLength() {
+		int bits = COUNT_BITS;
+		for (byte[] token : tokens)
+			bits += LENGTH_BITS + token.length * 8;
+		return bits;
+	}
+
+	/**
+	 * @return the symbol of a token or single byte, or -1 if it isn't one
+	 */
+	public int getSymbol(BitSequence bytes) {
+		if (bytes.getNumberOfBits() == 8)
+			return (int) bytes.getBits(0, 8);
+		byte[] token = bytes.getByteArray();
+		if (bytes.getNumberOfBits() % 8 != 0 || token.length < 2 || token.length > MAX_TOKEN_LENGTH)
+			return -1;
+		long key = key(token, 0, token.length);
+		int slot = slot(key);
+		return keys[slot] == key ? ids[slot] : -1;
+	}
+
+	/**
+	 * Builds the encode table of a mapping from tokens to codes, such as one made from an a priori
+	 * table. Symbols that aren't tokens are left out.
+	 *
+	 * @throws Exception if a code is longer than EncodeTable.MAX_CODE_LENGTH
+	 */
+	public EncodeTable getEncodeTable(Map<BitSequence, BitSequence> mapping) throws Exception {
+		int[] codes = new int[1 << symbolLength];
+		byte[] lengths = new byte[1 << symbolLength];
+		for (Map.Entry<BitSequence, BitSequence> entry : mapping.entrySet()) {
+			int symbol = getSymbol(entry.getKey());
+			int length = entry.getValue().getNumberOfBits();
+			if (symbol < 0)
+				continue;
+			if (length > EncodeTable.MAX_CODE_LENGTH)
+				throw new Exception("Codes longer than " + EncodeTable.MAX_CODE_LENGTH + " bits are not supported.");
+			codes[symbol] = (int) entry.getValue().getBits(0, length);
+			lengths[symbol] = (byte) length;
+		}
+		return new EncodeTable(symbolLength, codes, lengths);
+	}
+
+	public int getTokenCount() {
+		return tokens.length;
+	}
+
+	@Override
+	public int getSymbolLength() {
+		return symbolLength;
+	}
+
+	@Override
+	public void count(ByteBuffer in, Histogram histogram) {
+		try {
+			split(in, histogram::update);
+		} catch (IOException e) {
+			// counting doesn't do I/O
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public void code(ByteBuffer in, EncodeTable table, EncodeTable.Sink out) throws IOException {
+		split(in, (symbols, count) -> table.code(symbols, count, out));
+	}
+
+	@Override
+	public long getBits(int symbol) {
+		if (symbol < BYTE_SYMBOLS)
+			return symbol;
+		byte[] token = tokens[symbol - BYTE_SYMBOLS];
+		long bits = 0;
+		for (byte b : token)
+			bits = (bits << 8) | (b & 0xFF);
+		return bits;
+	}
+
+	@Override
+	public int getWidth(int symbol) {
+		return symbol < BYTE_SYMBOLS ? 8 : tokens[symbol - BYTE_SYMBOLS].length * 8;
+	}
+
+	private interface Batch {
+		void accept(int[] symbols, int count) throws IOException;
+	}
+
+	/**
+	 * Splits the bytes into symbols, handing them over a batch at a time.
+	 */
+	private void split(ByteBuffer in, Batch out) throws IOException {
+		int[] batch = new int[BATCH_SIZE];
+		int n = 0;
+		int limit = in.limit();
+		int i = in.position();
+		while (i < limit) {
+			int first = in.get(i) & 0xFF;
+			int symbol = first;
+			int length = 1;
+			int candidates = lengthsByFirstByte[first];
+			for (int l = Math.min(maxLength, limit - i); candidates != 0 && l >= 2; l--) {
+				if ((candidates & (1 << l)) == 0)
+					continue;
+				long key = key(in, i, l);
+				int slot = slot(key);
+				if (keys[slot] == key) {
+					symbol = ids[slot];
+					length = l;
+					break;
+				}
+			}
+			batch[n++] = symbol;
+			i += length;
+			if (n == batch.length) {
+				out.accept(batch, n);
+				n = 0;
+			}
+		}
+		if (n > 0)
+			out.accept(batch, n);
+	}
+
+	/**
+	 * Open addressing: the slot of the key, or the empty slot where it would go.
+	 */
+	private int slot(long key) {
+		int mask = keys.length - 1;
+		long hash = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (hash >>> 40) & mask;
+		while (keys[slot] != 0 && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	// the length in the top byte keeps keys apart from each other and from 0, the empty slot
+	private static long key(ByteBuffer in, int from, int length) {
+		long key = length;
+		for (int i = 0; i < length; i++)
+			key = (key << 8) | (in.get(from + i) & 0xFF);
+		return key << (8 * (MAX_TOKEN_LENGTH - length));
+	}
+
+	private static long key(byte[] token, int from, int length) {
+		return key(ByteBuffer.wrap(token), from, length);
+	}
+
+	private static boolean isLetter(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+	}
+
+	/**
+	 * The tokens with the highest scores, ties broken by the token bytes so the result is always the same.
+	 */
+	private static List<byte[]> best(Map<Long, Long> scores, int maxTokens) {
+		List<Map.Entry<Long, Long>> entries = new ArrayList<>(scores.entrySet());
+		entries.sort((a, b) -> !a.getValue().equals(b.getValue()) ? Long.compare(b.getValue(), a.getValue()) : Long.compare(a.getKey(), b.getKey()));
+		List<byte[]> tokens = new ArrayList<>();
+		for (int i = 0; i < Math.min(maxTokens, entries.size()); i++) {
+			long key = entries.get(i).getKey();
+			int length = (int) (key >>> 56);
+			byte[] token = new byte[length];
+			for (int b = 0; b < length; b++)
+				token[b] = (byte) (key >>> (8 * (MAX_TOKEN_LENGTH - 1 - b)));
+			tokens.add(token);
+		}
+		return tokens;
+	}
+
+	private static ByteBuffer sample(String filePath) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+		try {
+			ByteBuffer sample = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, channel.size()));
+			while (sample.hasRemaining() && channel.read(sample) >= 0)
+				;
+			sample.flip();
+			return sample;
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -2,13 +2,13 @@ package huffman;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Stack;
 
 import exceptions.ProbabilityFileException;
@@ -19,10 +19,25 @@ import huffman.tree.Node;
 
 public class Utils {
 	private static final double APROXIMATION = 0.999999;
+	// a priori probabilities are compared as integers in units of 2^-40
+	private static final double WEIGHT_SCALE = 0x1p40;
 
 	public static Map<BitSequence, Double> getPrioriProbabilities(File probabilitiesFile) throws Exception {
+		BufferedReader br;
+		try {
+			br = new BufferedReader(new FileReader(probabilitiesFile));
+		} catch (Exception e) {
+			throw new ProbabilityFileException();
+		}
+		return getPrioriProbabilities(br);
+	}
+
+	/**
+	 * Reads a probabilities table and closes the reader.
+	 * table: <symbol count> (<symbol> <probability>)*
+	 */
+	public static Map<BitSequence, Double> getPrioriProbabilities(BufferedReader br) throws Exception {
 		try {
-			BufferedReader br = new BufferedReader(new FileReader(probabilitiesFile));
 			Map<BitSequence, Double> probabilities = new HashMap<>(Integer.parseInt(br.readLine()));
 			String st;
 			while ((st = br.readLine()) != null) {
@@ -41,22 +56,113 @@ public class Utils {
 		}
 	}
 
+	/**
+	 * Builds the Huffman tree of a priori probabilities. The probabilities are turned into
+	 * integer weights, so the tree only depends on them and not on the order of the map.
+	 *
+	 * @param probabilitiesDictionary - probability of each symbol
+	 * @throws ProbabilitySumException if the probabilities don't add up to 1
+	 */
 	public static HuffmanNode createHuffmanTree(Map<BitSequence, Double> probabilitiesDictionary)
 			throws ProbabilitySumException {
-		PriorityQueue<HuffmanNode> queue = new PriorityQueue<>();
-		for (Map.Entry<BitSequence, Double> entry : probabilitiesDictionary.entrySet())
-			queue.add(new Leaf(entry.getKey(), entry.getValue()));
+		List<BitSequence> symbols = new ArrayList<>(probabilitiesDictionary.keySet());
+		symbols.sort(Comparator.comparingInt(BitSequence::getNumberOfBits).thenComparing(BitSequence::toString));
+		double sum = 0;
+		long[] weights = new long[symbols.size()];
+		for (int i = 0; i < weights.length; i++) {
+			double probability = probabilitiesDictionary.get(symbols.get(i));
+			sum += probability;
+			weights[i] = Math.round(probability * WEIGHT_SCALE);
+		}
+		if (symbols.isEmpty() || sum < APROXIMATION)
+			throw new ProbabilitySumException();
+		return createHuffmanTree(symbols.toArray(new BitSequence[0]), weights);
+	}
 
-		while (!queue.isEmpty()) {
-			HuffmanNode t1 = queue.remove();
-			HuffmanNode t2 = queue.remove();
-			double sum = t1.getProbability() + t2.getProbability();
-			Node node = new Node(t1, t2, sum);
-			if (sum >= APROXIMATION)
-				return node;
-			queue.add(node);
+	/**
+	 * Builds the Huffman tree of the symbol counts of a file. Symbols that didn't appear are
+	 * left out; when fewer than two did, symbols that didn't appear are added so the root
+	 * still has two children.
+	 *
+	 * @param counts       - occurrences of each symbol value
+	 * @param symbolLength - bit length of the symbols
+	 */
+	public static HuffmanNode createHuffmanTree(long[] counts, int symbolLength) {
+		List<BitSequence> symbols = new ArrayList<>();
+		List<Long> weights = new ArrayList<>();
+		for (int symbol = 0; symbol < counts.length; symbol++) {
+			if (counts[symbol] > 0) {
+				symbols.add(new BitSequence().appendBits(symbol, symbolLength));
+				weights.add(counts[symbol]);
+			}
+		}
+		for (int symbol = 0; symbols.size() < 2; symbol++) {
+			if (counts[symbol] == 0) {
+				symbols.add(new BitSequence().appendBits(symbol, symbolLength));
+				weights.add(0L);
+			}
 		}
-		throw new ProbabilitySumException();
+		long[] weightArray = new long[weights.size()];
+		for (int i = 0; i < weightArray.length; i++)
+			weightArray[i] = weights.get(i);
+		return createHuffmanTree(symbols.toArray(new BitSequence[0]), weightArray);
+	}
+
+	/**
+	 * Sorts the leaves by weight and merges them with the two-queue method: the nodes are made in
+	 * order of weight, so the two lightest are always at the head of the leaves or of the nodes.
+	 * Ties go to the leaf, then to the symbol that came first, so the tree is always the same.
+	 *
+	 * @param symbols - the symbols, in a fixed order
+	 * @param weights - integer weight of each symbol
+	 */
+	private static HuffmanNode createHuffmanTree(BitSequence[] symbols, long[] weights) {
+		int n = symbols.length;
+		if (n == 1) {
+			// a second leaf, whose symbol differs in the last bit
+			int last = symbols[0].getNumberOfBits() - 1;
+			BitSequence other = new BitSequence();
+			for (int i = 0; i < last; i++)
+				other.addBit(symbols[0].isSet(i));
+			other.addBit(!symbols[0].isSet(last));
+			return createHuffmanTree(new BitSequence[] { symbols[0], other }, new long[] { weights[0], 0 });
+		}
+		double total = 0;
+		for (long weight : weights)
+			total += weight;
+		double scale = total > 0 ? total : 1;
+
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		Arrays.sort(order, Comparator.comparingLong(i -> weights[i]));
+		HuffmanNode[] leaves = new HuffmanNode[n];
+		long[] leafWeights = new long[n];
+		for (int i = 0; i < n; i++) {
+			leaves[i] = new Leaf(symbols[order[i]], weights[order[i]] / scale);
+			leafWeights[i] = weights[order[i]];
+		}
+
+		HuffmanNode[] nodes = new HuffmanNode[n - 1];
+		long[] nodeWeights = new long[n - 1];
+		int leaf = 0;
+		int head = 0;
+		for (int tail = 0; tail < n - 1; tail++) {
+			HuffmanNode[] pair = new HuffmanNode[2];
+			long weight = 0;
+			for (int k = 0; k < 2; k++) {
+				if (leaf < n && (head == tail || leafWeights[leaf] <= nodeWeights[head])) {
+					weight += leafWeights[leaf];
+					pair[k] = leaves[leaf++];
+				} else {
+					weight += nodeWeights[head];
+					pair[k] = nodes[head++];
+				}
+			}
+			nodes[tail] = new Node(pair[0], pair[1], weight / scale);
+			nodeWeights[tail] = weight;
+		}
+		return nodes[n - 2];
 	}
 
 	public static Map<BitSequence, BitSequence> createMapping(HuffmanNode tree, int probabilitySize) {
@@ -84,27 +190,4 @@ public class Utils {
 		return mapping;
 	}
 
-	static void writeOutput(FileOutputStream fos, BitSequence bits) throws IOException {
-		double limit = 64000000;
-		int counter = 0;
-		double div = Math.ceil(bits.getByteList().size()/limit);
-		Iterator<Byte> it = bits.getByteList().iterator();
-		for(int i = 0; i < div-1; i++) {
-			byte[] buffer = new byte[(int) limit];
-			for(int j = 0; j < limit; j++) {
-				buffer[j] = it.next();
-				counter++;
-			}
-			fos.write(buffer);
-		}
-		limit = (bits.getByteList().size() - counter);
-		if(limit > 0) {
-			byte[] buffer = new byte[(int) limit];
-			for(int i = 0; i < limit; i++) {
-				buffer[i] = it.next();
-			}
-			fos.write(buffer);
-		}
-	}
-
 }
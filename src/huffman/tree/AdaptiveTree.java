@@ -0,0 +1,260 @@
+package huffman.tree;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import huffman.BitSequence;
+import huffman.BitWriter;
+
+/**
+ * Huffman tree that is updated after every symbol (algorithm FGK), so encoder and decoder
+ * build the same code from the symbols seen so far and no table has to be sent. Symbols not
+ * seen yet are coded with the escape leaf, which has weight 0.
+ *
+ * Nodes are numbered from the root down, and the weights never decrease with the number
+ * (sibling property). Before a node is incremented it is swapped with the highest numbered
+ * node of the same weight, which keeps the property. The nodes of a weight have consecutive
+ * numbers, a block, whose leader is kept, so finding it doesn't go through the block. Weights
+ * and blocks are kept by number: a swap exchanges two nodes of the same weight and block, so
+ * it leaves them as they are.
+ */
+public class AdaptiveTree {
+	private final int symbolLength;
+	private final Leaf[] leaves;
+	private final HuffmanNode[] nodes;
+	private final int[] path;
+	// weight and block id of the node of each number, -1 past the root and below the escape
+	private final double[] weights;
+	private final int[] blocks;
+	// number of the highest node of each block, by id
+	private final int[] leaders;
+	// ids of no block, to be handed out
+	private final int[] freeBlocks;
+	private int freeCount;
+	private HuffmanNode root;
+	private Leaf escape;
+
+	/**
+	 * @param symbolLength - bit length of the symbols (1 to 16)
+	 */
+	public AdaptiveTree(int symbolLength) {
+		if (symbolLength < 1 || symbolLength > 16)
+			throw new IllegalArgumentException("Symbol length must be between 1 and 16.");
+		this.symbolLength = symbolLength;
+		this.leaves = new Leaf[1 << symbolLength];
+		// every symbol and the escape are leaves, plus one internal node for each but one
+		this.nodes = new HuffmanNode[2 * leaves.length + 1];
+		this.path = new int[nodes.length];
+		this.weights = new double[nodes.length + 1];
+		this.blocks = new int[nodes.length + 1];
+		Arrays.fill(weights, -1);
+		Arrays.fill(blocks, -1);
+		this.leaders = new int[nodes.length];
+		this.freeBlocks = new int[nodes.length];
+		for (int block = nodes.length - 1; block >= 0; block--)
+			freeBlocks[freeCount++] = block;
+		this.escape = new Leaf(null, 0);
+		this.root = escape;
+		escape.number = nodes.length - 1;
+		weights[escape.number] = 0;
+		blocks[escape.number] = newBlock(escape.number);
+		nodes[escape.number] = escape;
+	}
+
+	public HuffmanNode getRoot() {
+		return root;
+	}
+
+	public int getSymbolLength() {
+		return symbolLength;
+	}
+
+	/**
+	 * @return true if the leaf is the one for symbols not seen yet
+	 */
+	public boolean isEscape(HuffmanNode node) {
+		return node == escape;
+	}
+
+	/**
+	 * @return the value of the symbol of a leaf that isn't the escape
+	 */
+	public int getSymbol(Leaf leaf) {
+		return (int) leaf.getSymbol().getBits(0, symbolLength);
+	}
+
+	/**
+	 * Writes the current code of a symbol, or the code of the escape if it wasn't seen yet.
+	 *
+	 * @param symbol - value of the symbol
+	 * @param out    - where the code is written
+	 * @return true if the symbol was seen before
+	 */
+	public boolean writeCode(int symbol, BitWriter out) throws IOException {
+		HuffmanNode leaf = leaves[symbol];
+		writePath(leaf == null ? escape : leaf, out);
+		return leaf != null;
+	}
+
+	/**
+	 * Writes the code of the escape.
+	 */
+	public void writeEscape(BitWriter out) throws IOException {
+		writePath(escape, out);
+	}
+
+	/**
+	 * Counts one more occurrence of a symbol, adding it to the tree the first time it shows up.
+	 *
+	 * @param symbol - value of the symbol
+	 */
+	public void update(int symbol) {
+		HuffmanNode node = leaves[symbol];
+		if (node == null) {
+			// the escape is split into a node with the new escape on the left and the symbol on the right
+			Leaf leaf = new Leaf(new BitSequence().appendBits(symbol, symbolLength), 0);
+			Leaf newEscape = new Leaf(null, 0);
+			Node split = new Node(newEscape, leaf, 0);
+			replace(escape, split);
+			split.number = escape.number;
+			leaf.number = escape.number - 1;
+			newEscape.number = escape.number - 2;
+			nodes[split.number] = split;
+			nodes[leaf.number] = leaf;
+			nodes[newEscape.number] = newEscape;
+			leaf.parent = split;
+			newEscape.parent = split;
+			// all of weight 0, below the escape they replace, which led the block
+			for (int number = newEscape.number; number < split.number; number++) {
+				weights[number] = 0;
+				blocks[number] = blocks[split.number];
+			}
+			leaves[symbol] = leaf;
+			escape = newEscape;
+			node = leaf;
+		}
+		// whether the node before was the sibling of the escape, which goes up ahead of its parent
+		boolean behind = false;
+		while (node != null) {
+			int leader = leaders[blocks[node.number]];
+			if (leader != node.number) {
+				HuffmanNode top = nodes[leader];
+				if (top == node.parent) {
+					incrementSibling(node);
+					behind = true;
+					node = node.parent;
+					continue;
+				}
+				swap(node, top);
+			}
+			increment(node, behind);
+			behind = false;
+			node = node.parent;
+		}
+	}
+
+	/**
+	 * Adds one to the weight of the leader of a block and moves it to the block of its new weight.
+	 *
+	 * @param behind - true if the node is the parent of the sibling of the escape, which is
+	 *                 below it and already has the new weight
+	 */
+	private void increment(HuffmanNode node, boolean behind) {
+		int number = node.number;
+		int block = blocks[number];
+		// the rest of the block is below, past the sibling of the escape
+		int below = behind ? number - 2 : number - 1;
+		boolean alone = blocks[below] != block;
+		if (!alone)
+			leaders[block] = below;
+		double weight = ++weights[number];
+		node.setProbability(weight);
+		if (weights[number + 1] == weight)
+			blocks[number] = blocks[number + 1];
+		else if (behind) {
+			blocks[number] = blocks[number - 1];
+			leaders[blocks[number]] = number;
+		} else {
+			// a node alone in its block keeps it, most of the ones near the root are
+			if (!alone)
+				blocks[number] = newBlock(number);
+			return;
+		}
+		if (alone)
+			freeBlocks[freeCount++] = block;
+	}
+
+	/**
+	 * Adds one to the weight of the sibling of the escape, whose parent leads their block and
+	 * is incremented right after it. Until then the node is above its parent in weight.
+	 */
+	private void incrementSibling(HuffmanNode node) {
+		int number = node.number;
+		double weight = ++weights[number];
+		node.setProbability(weight);
+		if (weights[number + 2] == weight)
+			blocks[number] = blocks[number + 2];
+		else
+			blocks[number] = newBlock(number);
+	}
+
+	private int newBlock(int leader) {
+		int block = freeBlocks[--freeCount];
+		leaders[block] = leader;
+		return block;
+	}
+
+	/**
+	 * Swaps two nodes, with their subtrees, and their numbers. Neither can be an ancestor of the other.
+	 */
+	private void swap(HuffmanNode a, HuffmanNode b) {
+		Node parentA = a.parent;
+		Node parentB = b.parent;
+		boolean leftA = parentA.getLeft() == a;
+		boolean leftB = parentB.getLeft() == b;
+		if (leftA)
+			parentA.setLeft(b);
+		else
+			parentA.setRight(b);
+		if (leftB)
+			parentB.setLeft(a);
+		else
+			parentB.setRight(a);
+		a.parent = parentB;
+		b.parent = parentA;
+
+		int number = a.number;
+		a.number = b.number;
+		b.number = number;
+		nodes[a.number] = a;
+		nodes[b.number] = b;
+	}
+
+	private void replace(HuffmanNode old, HuffmanNode node) {
+		Node parent = old.parent;
+		node.parent = parent;
+		if (parent == null)
+			root = node;
+		else if (parent.getLeft() == old)
+			parent.setLeft(node);
+		else
+			parent.setRight(node);
+	}
+
+	private void writePath(HuffmanNode node, BitWriter out) throws IOException {
+		int depth = 0;
+		for (; node.parent != null; node = node.parent)
+			path[depth++] = node.parent.getRight() == node ? 1 : 0;
+		long bits = 0;
+		int count = 0;
+		while (depth > 0) {
+			bits = (bits << 1) | path[--depth];
+			if (++count == 64) {
+				out.write(bits, count);
+				bits = 0;
+				count = 0;
+			}
+		}
+		out.write(bits, count);
+	}
+}
@@ -2,6 +2,9 @@ package huffman.tree;
 
 public abstract class HuffmanNode implements Comparable<HuffmanNode>{
 	private double probability;
+	// only used by the adaptive tree, which moves nodes around
+	Node parent;
+	int number;
 	
 	public HuffmanNode(double probability) {
 		this.probability = probability;
@@ -10,11 +13,12 @@ public abstract class HuffmanNode implements Comparable<HuffmanNode>{
 	public double getProbability() {
 		return probability;
 	}
+
+	void setProbability(double probability) {
+		this.probability = probability;
+	}
 	
 	public int compareTo(HuffmanNode arg) {
-		if(arg.getProbability() >= probability)
-			return -1;
-		else 
-			return 1;
+		return Double.compare(probability, arg.getProbability());
 	}
 }
@@ -0,0 +1,79 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD unpacker on the incubating Vector API. A chunk holds one symbol per int lane of the
+ * widest vector of the CPU: one load takes the chunk, a byte shuffle puts the 4 bytes each
+ * symbol starts in into its lane, most significant first, and a shift and a mask by lane
+ * leave the symbol. Symbols of up to 25 bits never span more than 4 bytes.
+ */
+final class VectorSymbolUnpacker extends SymbolUnpacker {
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+	private static final int MIN_LANES = 8;
+	private static final int MAX_SYMBOL_LENGTH = 25;
+	private static final int INT_BITS = 32;
+
+	private final int lanes = INTS.length();
+	// by symbol length, from 0, which isn't used
+	private final List<VectorShuffle<Byte>> shuffles = new ArrayList<>(MAX_SYMBOL_LENGTH + 1);
+	private final IntVector[] shifts = new IntVector[MAX_SYMBOL_LENGTH + 1];
+
+	/**
+	 * Builds the shuffles and shifts of every symbol length. Only to be called if isSupported().
+	 */
+	VectorSymbolUnpacker() {
+		boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+		shuffles.add(null);
+		for (int symbolLength = 1; symbolLength <= MAX_SYMBOL_LENGTH; symbolLength++) {
+			int[] indexes = new int[BYTES.length()];
+			int[] shift = new int[lanes];
+			for (int lane = 0; lane < lanes; lane++) {
+				int bit = lane * symbolLength;
+				for (int b = 0; b < 4; b++)
+					indexes[lane * 4 + (littleEndian ? 3 - b : b)] = (bit >>> 3) + b;
+				shift[lane] = INT_BITS - symbolLength - (bit & 7);
+			}
+			shuffles.add(VectorShuffle.fromArray(BYTES, indexes, 0));
+			shifts[symbolLength] = IntVector.fromArray(INTS, shift, 0);
+		}
+	}
+
+	/**
+	 * @return whether the vectors of the CPU are wide enough: with fewer than 8 int lanes a
+	 *         chunk isn't always a whole number of bytes, and it wouldn't pay off
+	 */
+	static boolean isSupported() {
+		return INTS.length() >= MIN_LANES && BYTES.length() == INTS.length() * 4;
+	}
+
+	@Override
+	int getMaxSymbolLength() {
+		return MAX_SYMBOL_LENGTH;
+	}
+
+	@Override
+	int unpack(ByteBuffer in, int from, int to, int symbolLength, int[] symbols) {
+		VectorShuffle<Byte> shuffle = shuffles.get(symbolLength);
+		IntVector shift = shifts[symbolLength];
+		int mask = (1 << symbolLength) - 1;
+		int chunk = lanes * symbolLength / 8;
+		// a load takes a whole vector, past the chunk
+		int last = to - BYTES.length();
+		int i = from;
+		for (int n = 0; i <= last && n + lanes <= symbols.length; i += chunk, n += lanes)
+			ByteVector.fromByteBuffer(BYTES, in, i, ByteOrder.nativeOrder()).rearrange(shuffle).reinterpretAsInts()
+					.lanewise(VectorOperators.LSHR, shift).and(mask).intoArray(symbols, n);
+		return i - from;
+	}
+}